@@ -0,0 +1,144 @@
+package de.pruefbit.kata.benchmarks;
+
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the decode, checksum and recovery paths of OcrDecode.
+ * <p>
+ * The entries come either from the User Story input files ("fixtures"), or from the ScanFileGenerator with a
+ * configurable mix of valid, ERR and ILL entries ("synthetic"). Every benchmark call works on the next entry,
+ * cycling through all of them. markErrOrIll and tryRecoverErrOrIll only cycle through the invalid entries, because
+ * these are the only ones they are called for.
+ * <p>
+ * Run with "-prof gc" to see the allocation rate, too.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class OcrDecodeBenchmark {
+
+    private static final String[] FIXTURES = {"use_case_1_in.txt", "use_case_3_in.txt", "use_case_4_in.txt"};
+
+    @Param({"fixtures", "synthetic"})
+    public String source;
+
+    @Param({"100000"})
+    public int syntheticEntries;
+
+    @Param({"90"})
+    public int validPercent;
+
+    @Param({"5"})
+    public int errPercent;
+
+    private String[][] scanLines;
+    private String[] decoded;
+    private String[][] invalidScanLines;
+    private String[] invalidDecoded;
+    private int cursor;
+    private int invalidCursor;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (source.equals("fixtures")) {
+            List<String[]> entries = new ArrayList<>();
+            for (String fixture : FIXTURES) {
+                readFixture(fixture, entries);
+            }
+            scanLines = entries.toArray(new String[0][]);
+        } else {
+            ScanFileGenerator generator = new ScanFileGenerator(4711L, validPercent, errPercent);
+            scanLines = new String[syntheticEntries][];
+            for (int n = 0; n < syntheticEntries; n += 1) {
+                scanLines[n] = generator.nextScanLine();
+            }
+        }
+        decoded = new String[scanLines.length];
+        List<String[]> invalidEntries = new ArrayList<>();
+        List<String> invalidResults = new ArrayList<>();
+        for (int n = 0; n < scanLines.length; n += 1) {
+            decoded[n] = OcrDecode.decode(scanLines[n]);
+            if (!OcrDecode.isAccountNumberValid(decoded[n])) {
+                invalidEntries.add(scanLines[n]);
+                invalidResults.add(decoded[n]);
+            }
+        }
+        invalidScanLines = invalidEntries.toArray(new String[0][]);
+        invalidDecoded = invalidResults.toArray(new String[0]);
+    }
+
+    private static void readFixture(String fixture, List<String[]> entries) throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                OcrDecodeBenchmark.class.getResourceAsStream("/" + fixture), StandardCharsets.US_ASCII))) {
+            String[] scanLine = new String[3];
+            int relativeLineNumber = 0;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (relativeLineNumber < 3) {
+                    scanLine[relativeLineNumber] = line;
+                    relativeLineNumber += 1;
+                } else {
+                    entries.add(scanLine);
+                    scanLine = new String[3];
+                    relativeLineNumber = 0;
+                }
+            }
+        }
+    }
+
+    private int next() {
+        cursor = cursor + 1 == scanLines.length ? 0 : cursor + 1;
+        return cursor;
+    }
+
+    private int nextInvalid() {
+        invalidCursor = invalidCursor + 1 == invalidScanLines.length ? 0 : invalidCursor + 1;
+        return invalidCursor;
+    }
+
+    @Benchmark
+    public String decode() {
+        return OcrDecode.decode(scanLines[next()]);
+    }
+
+    @Benchmark
+    public boolean isAccountNumberValid() {
+        return OcrDecode.isAccountNumberValid(decoded[next()]);
+    }
+
+    @Benchmark
+    public String markErrOrIll() {
+        return OcrDecode.markErrOrIll(invalidDecoded[nextInvalid()]);
+    }
+
+    @Benchmark
+    public String tryRecoverErrOrIll() {
+        int n = nextInvalid();
+        return OcrDecode.tryRecoverErrOrIll(invalidScanLines[n], invalidDecoded[n]);
+    }
+}
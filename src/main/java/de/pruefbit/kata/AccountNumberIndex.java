@@ -0,0 +1,265 @@
+package de.pruefbit.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * An index of the account numbers seen so far, to find account numbers that appear more than once, also across
+ * many scan files.
+ * <p>
+ * An account number has 9 digits, so there are only 10^9 of them, and one bit per account number makes a bit set
+ * of 125 MB. The bit set is kept off the heap, in a memory mapped file that keeps it from one run to the next, or
+ * in a direct buffer that is gone after the run. Optionally, a second bit set of the same size remembers which
+ * account numbers were seen twice or more.
+ * <p>
+ * The bit sets are read and written as longs through a VarHandle. Setting a bit is a compare-and-set of its long,
+ * so any number of threads can add account numbers at the same time without a lock, and exactly one of them
+ * finds an account number to be new. Bits are never cleared, so a bit that was seen set stays set. The index
+ * takes the same amount of memory, no matter how many account numbers it holds.
+ * <p>
+ * Usage example:
+ * <pre>
+ *     try (AccountNumberIndex index = AccountNumberIndex.open(path, false)) {
+ *         if (!index.add(490867715)) {
+ *             System.out.println("490867715 was seen before");
+ *         }
+ *     }
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class AccountNumberIndex implements Closeable {
+
+    /**
+     * The number of digits of an account number.
+     */
+    public static final int DIGITS = 9;
+
+    /**
+     * The number of different account numbers, 10^9.
+     */
+    public static final long ACCOUNT_NUMBERS = 1_000_000_000L;
+
+    /**
+     * The size of one bit set in bytes.
+     */
+    public static final int BIT_SET_SIZE = (int) (ACCOUNT_NUMBERS / Byte.SIZE);
+
+    private static final VarHandle WORDS =
+            MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+
+    private final ByteBuffer bits;
+    private final boolean trackDuplicates;
+
+    private AccountNumberIndex(ByteBuffer bits, boolean trackDuplicates) {
+        this.bits = bits;
+        this.trackDuplicates = trackDuplicates;
+    }
+
+    /**
+     * Open an index file, or create it if it does not exist yet. A new file is sparse, so it only takes disk space
+     * where account numbers were added.
+     *
+     * @param path            the index file
+     * @param trackDuplicates true to also remember which account numbers were seen twice or more, which doubles the
+     *                        size of the file. An existing file must have been created with the same setting.
+     * @return the index
+     * @throws IOException if the file can not be opened or mapped, or has the wrong size
+     */
+    public static AccountNumberIndex open(Path path, boolean trackDuplicates) throws IOException {
+        long size = sizeFor(trackDuplicates);
+        try (FileChannel channel = FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            long existing = channel.size();
+            if (existing != 0 && existing != size) {
+                throw new IOException(path + " is not an account number index of " + size + " bytes");
+            }
+            MappedByteBuffer bits = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new AccountNumberIndex(bits, trackDuplicates);
+        }
+    }
+
+    /**
+     * Create an index in a direct buffer, which is not kept after the run.
+     *
+     * @param trackDuplicates true to also remember which account numbers were seen twice or more
+     * @return the index, with no account numbers in it
+     */
+    public static AccountNumberIndex allocate(boolean trackDuplicates) {
+        int size = sizeFor(trackDuplicates);
+        ByteBuffer bits = ByteBuffer.allocateDirect(size + Long.BYTES).alignedSlice(Long.BYTES);
+        return new AccountNumberIndex(bits, trackDuplicates);
+    }
+
+    private static int sizeFor(boolean trackDuplicates) {
+        return trackDuplicates ? 2 * BIT_SET_SIZE : BIT_SET_SIZE;
+    }
+
+    /**
+     * Add an account number. This is atomic: if several threads add the same new account number at the same time,
+     * only one of them gets true.
+     *
+     * @param accountNumber the account number, from 0 to 999999999
+     * @return true if the account number is new, false if it was added before
+     */
+    public boolean add(long accountNumber) {
+        check(accountNumber);
+        if (testAndSet(0, accountNumber)) {
+            return true;
+        }
+        if (trackDuplicates) {
+            testAndSet(BIT_SET_SIZE, accountNumber);
+        }
+        return false;
+    }
+
+    /**
+     * Only an OK or RECOVERED result of 9 digits has an account number that can be added.
+     *
+     * @param result the result of an entry
+     * @return its account number, or -1 if it has none
+     */
+    public static long accountNumberOf(DecodeResult result) {
+        DecodeResult.Status status = result.status();
+        boolean readable = status == DecodeResult.Status.OK || status == DecodeResult.Status.RECOVERED;
+        return readable && result.length() == DIGITS ? result.accountNumber() : -1;
+    }
+
+    /**
+     * The same as accountNumberOf() above, for a result string. Any other result than a good one has a suffix or
+     * a different length, so a result string of 9 characters always is a good account number.
+     *
+     * @param result a line of the User Story 4 output files, e.g. "490867715" or "888888888 AMB"
+     * @return its account number, or -1 if it has none
+     */
+    public static long accountNumberOf(String result) {
+        if (result.length() != DIGITS) {
+            return -1;
+        }
+        long value = 0;
+        for (int n = 0; n < DIGITS; n += 1) {
+            int digit = result.charAt(n) - '0';
+            if (digit < 0 || digit > 9) {
+                return -1;
+            }
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    /**
+     * @param accountNumber the account number, from 0 to 999999999
+     * @return true if the account number was added
+     */
+    public boolean contains(long accountNumber) {
+        check(accountNumber);
+        return isSet(0, accountNumber);
+    }
+
+    /**
+     * @param accountNumber the account number, from 0 to 999999999
+     * @return true if the account number was added twice or more
+     * @throws IllegalStateException if the index does not track duplicates
+     */
+    public boolean isDuplicate(long accountNumber) {
+        check(accountNumber);
+        if (!trackDuplicates) {
+            throw new IllegalStateException("the index does not track duplicates");
+        }
+        return isSet(BIT_SET_SIZE, accountNumber);
+    }
+
+    /**
+     * @return true if the index remembers which account numbers were added twice or more
+     */
+    public boolean tracksDuplicates() {
+        return trackDuplicates;
+    }
+
+    /**
+     * Count the account numbers that were added. This reads the whole bit set, so it is meant for reports, not
+     * for every entry.
+     *
+     * @return the number of different account numbers that were added
+     */
+    public long count() {
+        return cardinality(0);
+    }
+
+    /**
+     * Count the account numbers that were added twice or more. This reads the whole second bit set.
+     *
+     * @return the number of different account numbers that were added twice or more
+     * @throws IllegalStateException if the index does not track duplicates
+     */
+    public long duplicateCount() {
+        if (!trackDuplicates) {
+            throw new IllegalStateException("the index does not track duplicates");
+        }
+        return cardinality(BIT_SET_SIZE);
+    }
+
+    private static void check(long accountNumber) {
+        if (accountNumber < 0 || accountNumber >= ACCOUNT_NUMBERS) {
+            throw new IllegalArgumentException("not an account number: " + accountNumber);
+        }
+    }
+
+    /**
+     * Set the bit of the account number in the bit set at base, unless it is set already.
+     *
+     * @return true if this call set the bit
+     */
+    private boolean testAndSet(int base, long accountNumber) {
+        int index = base + (int) (accountNumber >>> 6) * Long.BYTES;
+        long mask = 1L << accountNumber;
+        long word = (long) WORDS.getAcquire(bits, index);
+        while ((word & mask) == 0) {
+            long witness = (long) WORDS.compareAndExchange(bits, index, word, word | mask);
+            if (witness == word) {
+                return true;
+            }
+            word = witness;
+        }
+        return false;
+    }
+
+    private boolean isSet(int base, long accountNumber) {
+        int index = base + (int) (accountNumber >>> 6) * Long.BYTES;
+        return ((long) WORDS.getAcquire(bits, index) & 1L << accountNumber) != 0;
+    }
+
+    private long cardinality(int base) {
+        long count = 0;
+        for (int index = base; index < base + BIT_SET_SIZE; index += Long.BYTES) {
+            count += Long.bitCount((long) WORDS.getAcquire(bits, index));
+        }
+        return count;
+    }
+
+    /**
+     * Write the changes of a file index to disk. A direct buffer index has nothing to write.
+     */
+    public void force() {
+        if (bits instanceof MappedByteBuffer) {
+            ((MappedByteBuffer) bits).force();
+        }
+    }
+
+    /**
+     * Write the changes of a file index to disk. The memory is given back when the index is garbage collected,
+     * because a mapped buffer can not be unmapped explicitly.
+     */
+    @Override
+    public void close() {
+        force();
+    }
+}
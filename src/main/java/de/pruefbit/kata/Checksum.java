@@ -0,0 +1,158 @@
+package de.pruefbit.kata;
+
+/**
+ * The account number checksum, working on digit arrays or character sequences without allocating anything.
+ * <p>
+ * The leftmost of n digits is multiplied by n, the next by n - 1 and so on down to the last digit, which is
+ * multiplied by 1. The account number is valid, if the sum of the products is divisible by 11. The remainder
+ * of the sum (the "residue") is what all methods here work with.
+ * <p>
+ * Because the sum is linear, replacing one digit does not require to sum up all digits again. If a digit at a
+ * position with weight w changes from old to new, the new residue is (residue - w * old + w * new) mod 11.
+ * The recovery of ERR and ILL entries uses this to try all its alternatives in O(1) each.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class Checksum {
+
+    /**
+     * The sum of a valid account number is divisible by MODULUS.
+     */
+    public static final int MODULUS = 11;
+
+    /**
+     * The residue of a digit sequence that contains anything else than digits.
+     */
+    public static final int UNREADABLE = -1;
+
+    /**
+     * You do not need to instantiate this class. All methods are static.
+     */
+    private Checksum() {}
+
+    /**
+     * @param position the position of a digit, with count beginning at 0 on the left
+     * @param length   the number of digits of the account number
+     * @return the weight of the digit in the checksum
+     */
+    public static int weight(int position, int length) {
+        return length - position;
+    }
+
+    /**
+     * @param digits the digit characters
+     * @param length the number of leading characters that make up the account number
+     * @return the residue, or UNREADABLE if one of the characters is not a digit
+     */
+    public static int residue(CharSequence digits, int length) {
+        int sum = 0;
+        for (int n = 0; n < length; n += 1) {
+            int digit = digits.charAt(n) - '0';
+            if (digit < 0 || digit > 9) {
+                return UNREADABLE;
+            }
+            sum += digit * (length - n);
+        }
+        return sum % MODULUS;
+    }
+
+    /**
+     * @param digits the digit values 0 to 9
+     * @param length the number of leading digits that make up the account number
+     * @return the residue, or UNREADABLE if one of the values is not a digit
+     */
+    public static int residue(int[] digits, int length) {
+        int sum = 0;
+        for (int n = 0; n < length; n += 1) {
+            int digit = digits[n];
+            if (digit < 0 || digit > 9) {
+                return UNREADABLE;
+            }
+            sum += digit * (length - n);
+        }
+        return sum % MODULUS;
+    }
+
+    /**
+     * @param digits the digit values 0 to 9
+     * @param length the number of leading digits that make up the account number
+     * @return the residue, or UNREADABLE if one of the values is not a digit
+     */
+    public static int residue(byte[] digits, int length) {
+        int sum = 0;
+        for (int n = 0; n < length; n += 1) {
+            int digit = digits[n];
+            if (digit < 0 || digit > 9) {
+                return UNREADABLE;
+            }
+            sum += digit * (length - n);
+        }
+        return sum % MODULUS;
+    }
+
+    /**
+     * The residue of all digits but the one at position, as if that one were 0. This is the base residue to
+     * try replacements for a digit that could not be read.
+     *
+     * @param digits   the digit characters
+     * @param length   the number of leading characters that make up the account number
+     * @param position the position to leave out
+     * @return the residue, or UNREADABLE if one of the other characters is not a digit
+     */
+    public static int residueWithout(CharSequence digits, int length, int position) {
+        int sum = 0;
+        for (int n = 0; n < length; n += 1) {
+            if (n == position) {
+                continue;
+            }
+            int digit = digits.charAt(n) - '0';
+            if (digit < 0 || digit > 9) {
+                return UNREADABLE;
+            }
+            sum += digit * (length - n);
+        }
+        return sum % MODULUS;
+    }
+
+    /**
+     * The incremental form of the checksum: evaluate the replacement of one digit, based on the residue of the
+     * digits before the replacement.
+     *
+     * @param residue  the residue before the replacement
+     * @param weight   the weight of the position where the digit is replaced
+     * @param oldDigit the value of the digit before
+     * @param newDigit the value of the digit after the replacement
+     * @return the residue after the replacement
+     */
+    public static int residueAfter(int residue, int weight, int oldDigit, int newDigit) {
+        int changed = (residue + weight * (newDigit - oldDigit)) % MODULUS;
+        return changed < 0 ? changed + MODULUS : changed;
+    }
+
+    /**
+     * @param digits the digit characters
+     * @param length the number of leading characters that make up the account number
+     * @return true if there is at least one character, all characters are digits and the checksum is good
+     */
+    public static boolean isValid(CharSequence digits, int length) {
+        return length > 0 && residue(digits, length) == 0;
+    }
+
+    /**
+     * @param digits the digit values 0 to 9
+     * @param length the number of leading digits that make up the account number
+     * @return true if there is at least one digit, all values are digits and the checksum is good
+     */
+    public static boolean isValid(int[] digits, int length) {
+        return length > 0 && residue(digits, length) == 0;
+    }
+
+    /**
+     * @param digits the digit values 0 to 9
+     * @param length the number of leading digits that make up the account number
+     * @return true if there is at least one digit, all values are digits and the checksum is good
+     */
+    public static boolean isValid(byte[] digits, int length) {
+        return length > 0 && residue(digits, length) == 0;
+    }
+}
@@ -0,0 +1,509 @@
+package de.pruefbit.kata;
+
+/**
+ * The result of the decode, validate and recover pipeline for one entry, as primitives instead of a string with
+ * a suffix.
+ * <p>
+ * The digits are kept as values 0 to 9, or UNKNOWN for a digit that could not be read. The status tells the
+ * outcome. For a RECOVERED entry, the digits are the repaired ones. For an AMB entry, the candidates are the
+ * repairs that would each give a good checksum, as position and digit, so that a consumer can show them without
+ * parsing anything.
+ * <p>
+ * An entry of up to MAX_PACKED_LENGTH digits also has a packed form, one long that can be passed around and
+ * stored without any object:
+ * <pre>
+ *     bits  0..29  the account number, with 0 for unreadable digits
+ *     bits 30..38  the unknown mask, bit p set if the digit at position p could not be read
+ *     bits 39..41  the ordinal of the status
+ *     bits 42..45  the number of digits
+ * </pre>
+ * The packed form does not hold the candidates of an AMB entry.
+ * <p>
+ * A MALFORMED entry breaks the format of scan files, so it has no digits. Instead, it has the byte offset of the
+ * entry in the scan file and the reason. Its packed form only holds the status.
+ * <p>
+ * toString() gives the same string as the pipeline of OcrDecode, e.g. "490867715" or "888888888 AMB", so the
+ * string methods of OcrDecode stay available as adapters.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class DecodeResult {
+
+    /**
+     * The outcome of the pipeline for one entry.
+     */
+    public enum Status {
+        /**
+         * All digits were read, and the checksum is good.
+         */
+        OK(""),
+        /**
+         * The checksum is bad, or one digit is unreadable, and there is no repair.
+         */
+        ERR(" ERR"),
+        /**
+         * Two or more digits are unreadable.
+         */
+        ILL(" ILL"),
+        /**
+         * There is more than one repair.
+         */
+        AMB(" AMB"),
+        /**
+         * There was exactly one repair, and it was applied.
+         */
+        RECOVERED(""),
+        /**
+         * The entry breaks the format of scan files, and was not decoded.
+         */
+        MALFORMED("");
+
+        private final String suffix;
+
+        Status(String suffix) {
+            this.suffix = suffix;
+        }
+
+        /**
+         * @return the suffix of the status in the User Story 4 output files, e.g. " ERR", or "" for none
+         */
+        public String suffix() {
+            return suffix;
+        }
+    }
+
+    /**
+     * The value of a digit that could not be read.
+     */
+    public static final int UNKNOWN = -1;
+
+    /**
+     * The maximum number of digits of an entry that has a packed form.
+     */
+    public static final int MAX_PACKED_LENGTH = 9;
+
+    private static final int MASK_SHIFT = 30;
+    private static final int STATUS_SHIFT = 39;
+    private static final int LENGTH_SHIFT = 42;
+    private static final long VALUE_MASK = (1L << MASK_SHIFT) - 1;
+    private static final int UNKNOWN_MASK = (1 << MAX_PACKED_LENGTH) - 1;
+    private static final int STATUS_MASK = 0b111;
+    private static final int LENGTH_MASK = 0b1111;
+
+    /**
+     * The number of low bits of a long the packed form takes. The higher bits are always 0.
+     */
+    static final int PACKED_BITS = LENGTH_SHIFT + 4;
+    private static final Status[] STATUSES = Status.values();
+    private static final int[] NO_CANDIDATES = new int[0];
+    private static final byte[] NO_DIGITS = new byte[0];
+
+    private final byte[] digits;
+    private final long unknownMask;
+    private final Status status;
+    private final int[] candidates;
+    private final long malformedOffset;
+    private final String malformedReason;
+
+    private DecodeResult(byte[] digits, long unknownMask, Status status, int[] candidates) {
+        this(digits, unknownMask, status, candidates, -1, null);
+    }
+
+    private DecodeResult(byte[] digits, long unknownMask, Status status, int[] candidates,
+                         long malformedOffset, String malformedReason) {
+        this.digits = digits;
+        this.unknownMask = unknownMask;
+        this.status = status;
+        this.candidates = candidates;
+        this.malformedOffset = malformedOffset;
+        this.malformedReason = malformedReason;
+    }
+
+    /**
+     * @param offset the byte offset of the entry in the scan file
+     * @param reason what is wrong with the entry
+     * @return a MALFORMED result
+     */
+    static DecodeResult malformed(long offset, String reason) {
+        return new DecodeResult(NO_DIGITS, 0, Status.MALFORMED, NO_CANDIDATES, offset, reason);
+    }
+
+    /**
+     * @param offset the byte offset of the entry in the scan file, or -1 if not known
+     * @param reason what is wrong with the entry
+     * @return the message of a malformed entry, the same as toString() of a MALFORMED result
+     */
+    static String malformedMessage(long offset, String reason) {
+        return "malformed scan entry at byte offset " + offset + ": " + reason;
+    }
+
+    /**
+     * Run the whole pipeline for one entry: decode, validate the checksum and, if the checksum is bad, recover.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @return the result
+     */
+    public static DecodeResult evaluate(String[] scanLine) {
+        return evaluate(scanLine, ScannerFont.STANDARD);
+    }
+
+    /**
+     * The same as evaluate() above, for an entry in another font.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @param font     the font to recognize the glyphs with
+     * @return the result
+     */
+    public static DecodeResult evaluate(String[] scanLine, ScannerFont font) {
+        int count = (scanLine[0].length() + 2) / 3;
+        int[] glyphs = new int[count];
+        for (int n = 0; n < count; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(scanLine, n * 3);
+        }
+        return evaluate(glyphs, count, font);
+    }
+
+    /**
+     * The same as evaluate() above, for an entry that was already packed into glyphs.
+     */
+    static DecodeResult evaluate(int[] glyphs, int count, ScannerFont font) {
+        OcrMetrics metrics = OcrDecode.getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        byte[] digits = new byte[count];
+        long unknownMask = 0;
+        int unknowns = 0;
+        int unknownPosition = -1;
+        for (int n = 0; n < count; n += 1) {
+            char ch = font.digitOf(glyphs[n]);
+            if (ch == GlyphTable.UNKNOWN) {
+                digits[n] = UNKNOWN;
+                unknownMask |= n < Long.SIZE ? 1L << n : 0;
+                unknowns += 1;
+                unknownPosition = n;
+            } else {
+                digits[n] = (byte) (ch - '0');
+            }
+        }
+        if (metrics != null) {
+            long decoded = System.nanoTime();
+            metrics.recordDecode(decoded - start);
+            start = decoded;
+        }
+        int residue = Checksum.residue(digits, count);
+        boolean valid = residue == 0 && count > 0;
+        if (metrics != null) {
+            long validated = System.nanoTime();
+            metrics.recordChecksum(validated - start, valid);
+            start = validated;
+        }
+        if (valid) {
+            return new DecodeResult(digits, 0, Status.OK, NO_CANDIDATES);
+        }
+        return recover(glyphs, digits, unknownMask, unknowns, unknownPosition, residue, font, metrics, start);
+    }
+
+    /**
+     * Recover an entry whose digits were decoded already, e.g. by OcrDecode.decode(). This is the recovery stage
+     * behind OcrDecode.tryRecoverErrOrIll().
+     *
+     * @param glyphs       the packed cells of the entry
+     * @param actualResult the decoded digits, with '?' for unreadable ones
+     * @param font         the font the glyphs were recognized with
+     * @return the result
+     */
+    static DecodeResult recover(int[] glyphs, String actualResult, ScannerFont font) {
+        OcrMetrics metrics = OcrDecode.getMetrics();
+        long start = metrics == null ? 0 : System.nanoTime();
+        int count = actualResult.length();
+        byte[] digits = new byte[count];
+        long unknownMask = 0;
+        int unknowns = 0;
+        int unknownPosition = -1;
+        for (int n = 0; n < count; n += 1) {
+            char ch = actualResult.charAt(n);
+            if (ch == GlyphTable.UNKNOWN) {
+                digits[n] = UNKNOWN;
+                unknownMask |= n < Long.SIZE ? 1L << n : 0;
+                unknowns += 1;
+                unknownPosition = n;
+            } else {
+                digits[n] = (byte) (ch - '0');
+            }
+        }
+        int residue = Checksum.residue(digits, count);
+        return recover(glyphs, digits, unknownMask, unknowns, unknownPosition, residue, font, metrics, start);
+    }
+
+    private static DecodeResult recover(int[] glyphs, byte[] digits, long unknownMask, int unknowns,
+                                        int unknownPosition, int residue, ScannerFont font,
+                                        OcrMetrics metrics, long start) {
+        DecodeResult result;
+        if (unknowns == 0) {
+            if (metrics != null) {
+                metrics.countRecoverError();
+            }
+            result = recoverError(glyphs, digits, residue, font);
+        } else if (unknowns == 1) {
+            if (metrics != null) {
+                metrics.countRecoverUnreadable();
+            }
+            result = recoverUnreadable(digits, unknownMask, unknownPosition,
+                    font.alternativesOf(glyphs[unknownPosition]));
+        } else {
+            result = new DecodeResult(digits, unknownMask, Status.ILL, NO_CANDIDATES);
+        }
+        if (metrics != null) {
+            metrics.recordRecovery(System.nanoTime() - start);
+            countOutcome(metrics, result.status);
+        }
+        return result;
+    }
+
+    /**
+     * Every position may hold a repair, which takes one lookup in the recovery table per position, checked against
+     * the alternatives of the glyph at the position.
+     */
+    private static DecodeResult recoverError(int[] glyphs, byte[] digits, int residue, ScannerFont font) {
+        int length = digits.length;
+        int[] found = new int[length];
+        int count = 0;
+        for (int position = 0; position < length; position += 1) {
+            int repair = font.repairOf(Checksum.weight(position, length), digits[position], glyphs[position],
+                    residue);
+            if (repair != RecoveryTable.NONE) {
+                found[count] = candidate(position, repair);
+                count += 1;
+            }
+        }
+        return withCandidates(digits, 0, found, count);
+    }
+
+    private static DecodeResult recoverUnreadable(byte[] digits, long unknownMask, int position, char[] alternatives) {
+        int length = digits.length;
+        int sum = 0;
+        for (int n = 0; n < length; n += 1) {
+            if (n != position) {
+                sum += digits[n] * Checksum.weight(n, length);
+            }
+        }
+        int residue = sum % Checksum.MODULUS;
+        int fillIn = RecoveryTable.fillInOf(Checksum.weight(position, length), residue);
+        int[] found = new int[alternatives.length];
+        int count = 0;
+        for (char ch : alternatives) {
+            if (fillIn == RecoveryTable.ANY || ch - '0' == fillIn) {
+                found[count] = candidate(position, ch - '0');
+                count += 1;
+            }
+        }
+        return withCandidates(digits, unknownMask, found, count);
+    }
+
+    private static DecodeResult withCandidates(byte[] digits, long unknownMask, int[] found, int count) {
+        if (count == 0) {
+            return new DecodeResult(digits, unknownMask, Status.ERR, NO_CANDIDATES);
+        }
+        if (count == 1) {
+            digits[found[0] / 10] = (byte) (found[0] % 10);
+            return new DecodeResult(digits, unknownMask, Status.RECOVERED, new int[] {found[0]});
+        }
+        int[] candidates = new int[count];
+        System.arraycopy(found, 0, candidates, 0, count);
+        return new DecodeResult(digits, unknownMask, Status.AMB, candidates);
+    }
+
+    private static int candidate(int position, int digit) {
+        return position * 10 + digit;
+    }
+
+    private static void countOutcome(OcrMetrics metrics, Status status) {
+        switch (status) {
+            case ERR:
+                metrics.countErr();
+                break;
+            case ILL:
+                metrics.countIll();
+                break;
+            case AMB:
+                metrics.countAmb();
+                break;
+            default:
+                metrics.countRecovered();
+        }
+    }
+
+    /**
+     * @return the outcome of the pipeline
+     */
+    public Status status() {
+        return status;
+    }
+
+    /**
+     * @return the byte offset in the scan file of a MALFORMED entry, otherwise -1. A result taken from the
+     * packed form has no offset.
+     */
+    public long malformedOffset() {
+        return malformedOffset;
+    }
+
+    /**
+     * @return what is wrong with a MALFORMED entry, otherwise null. A result taken from the packed form has no
+     * reason.
+     */
+    public String malformedReason() {
+        return malformedReason;
+    }
+
+    /**
+     * @return the number of digits
+     */
+    public int length() {
+        return digits.length;
+    }
+
+    /**
+     * @param position the position of a digit, with count beginning at 0 on the left
+     * @return the digit, or UNKNOWN if it could not be read
+     */
+    public int digitAt(int position) {
+        return digits[position];
+    }
+
+    /**
+     * @return bit p set if the digit at position p could not be read from the scan, also if it was recovered.
+     * Only positions 0 to 63 are covered.
+     */
+    public long unknownMask() {
+        return unknownMask;
+    }
+
+    /**
+     * @return the account number as a number, with 0 for unreadable digits. Only meaningful up to 18 digits.
+     */
+    public long accountNumber() {
+        long value = 0;
+        for (byte digit : digits) {
+            value = value * 10 + Math.max(digit, 0);
+        }
+        return value;
+    }
+
+    /**
+     * @return the number of candidates of an AMB entry, 1 for a RECOVERED entry, otherwise 0. A result taken
+     * from the packed form has no candidates.
+     */
+    public int candidateCount() {
+        return candidates.length;
+    }
+
+    /**
+     * @param n the number of the candidate, from 0 to candidateCount() - 1
+     * @return the position the candidate replaces a digit at
+     */
+    public int candidatePosition(int n) {
+        return candidates[n] / 10;
+    }
+
+    /**
+     * @param n the number of the candidate, from 0 to candidateCount() - 1
+     * @return the digit the candidate puts at its position
+     */
+    public int candidateDigit(int n) {
+        return candidates[n] % 10;
+    }
+
+    /**
+     * @param n the number of the candidate, from 0 to candidateCount() - 1
+     * @return the account number with the replacement of the candidate, as a string
+     */
+    public String candidate(int n) {
+        char[] result = digitChars();
+        result[candidatePosition(n)] = (char) ('0' + candidateDigit(n));
+        return new String(result);
+    }
+
+    /**
+     * @return the packed form of this result, without the candidates
+     * @throws IllegalStateException if there are more than MAX_PACKED_LENGTH digits
+     */
+    public long toPacked() {
+        if (digits.length > MAX_PACKED_LENGTH) {
+            throw new IllegalStateException(digits.length + " digits do not fit into the packed form");
+        }
+        return accountNumber()
+                | (unknownMask & UNKNOWN_MASK) << MASK_SHIFT
+                | (long) status.ordinal() << STATUS_SHIFT
+                | (long) digits.length << LENGTH_SHIFT;
+    }
+
+    /**
+     * @param packed the packed form of a result
+     * @return the result, without candidates
+     */
+    public static DecodeResult fromPacked(long packed) {
+        int length = lengthOf(packed);
+        int unknownMask = unknownMaskOf(packed);
+        Status status = statusOf(packed);
+        long value = accountNumberOf(packed);
+        byte[] digits = new byte[length];
+        for (int n = length - 1; n >= 0; n -= 1) {
+            boolean unknown = (unknownMask & (1 << n)) != 0 && status != Status.RECOVERED;
+            digits[n] = unknown ? UNKNOWN : (byte) (value % 10);
+            value /= 10;
+        }
+        return new DecodeResult(digits, unknownMask, status, NO_CANDIDATES);
+    }
+
+    /**
+     * @param packed the packed form of a result
+     * @return the account number, with 0 for unreadable digits
+     */
+    public static int accountNumberOf(long packed) {
+        return (int) (packed & VALUE_MASK);
+    }
+
+    /**
+     * @param packed the packed form of a result
+     * @return the unknown mask, bit p set if the digit at position p could not be read
+     */
+    public static int unknownMaskOf(long packed) {
+        return (int) (packed >>> MASK_SHIFT) & UNKNOWN_MASK;
+    }
+
+    /**
+     * @param packed the packed form of a result
+     * @return the status
+     */
+    public static Status statusOf(long packed) {
+        return STATUSES[(int) (packed >>> STATUS_SHIFT) & STATUS_MASK];
+    }
+
+    /**
+     * @param packed the packed form of a result
+     * @return the number of digits
+     */
+    public static int lengthOf(long packed) {
+        return (int) (packed >>> LENGTH_SHIFT) & LENGTH_MASK;
+    }
+
+    private char[] digitChars() {
+        char[] result = new char[digits.length];
+        for (int n = 0; n < digits.length; n += 1) {
+            result[n] = digits[n] == UNKNOWN ? GlyphTable.UNKNOWN : (char) ('0' + digits[n]);
+        }
+        return result;
+    }
+
+    /**
+     * @return the result in the same form as the User Story 4 output files, or for a MALFORMED entry the same
+     * message as the exception of a reader that does not report malformed entries
+     */
+    @Override
+    public String toString() {
+        if (status == Status.MALFORMED) {
+            return malformedMessage(malformedOffset, malformedReason == null ? "unknown reason" : malformedReason);
+        }
+        return new String(digitChars()) + status.suffix();
+    }
+}
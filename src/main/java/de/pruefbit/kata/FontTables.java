@@ -0,0 +1,191 @@
+package de.pruefbit.kata;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The lookup tables of a ScannerFont, compiled from the glyphs of its digits.
+ * <p>
+ * This is the compiler behind ScannerFont, kept apart from it, because ScannerFont loads the precomputed tables
+ * of its STANDARD font when its class is initialized. TableGenerator compiles the standard font with this class
+ * and never touches ScannerFont, so it still runs when GeneratedTables is stale or broken, and can fix it.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+final class FontTables {
+
+    static final int ROWS = 3;
+    static final int DIGITS = 10;
+
+    private static final int NO_DIGIT = -1;
+
+    final int[] glyphs;
+    final int[] glyphDigits;
+    final char[] digits;
+    final char[][] repairs;
+    final byte[] recoveryRepairs;
+
+    FontTables(int[] glyphs, int[] glyphDigits, char[] digits, char[][] repairs, byte[] recoveryRepairs) {
+        this.glyphs = glyphs;
+        this.glyphDigits = glyphDigits;
+        this.digits = digits;
+        this.repairs = repairs;
+        this.recoveryRepairs = recoveryRepairs;
+    }
+
+    /**
+     * @param definition the lines of a font definition, see ScannerFont
+     * @return the compiled tables
+     * @throws IllegalArgumentException if the definition is not a valid font
+     */
+    static FontTables parse(List<String> definition) {
+        List<String> lines = new ArrayList<>();
+        for (String line : definition) {
+            if (!line.isEmpty() && !line.startsWith("#")) {
+                lines.add(line);
+            }
+        }
+        if (lines.size() != ROWS + 1) {
+            throw new IllegalArgumentException("a font needs three rows of cells and one line of digits, not "
+                    + lines.size() + " lines");
+        }
+        String labels = lines.get(ROWS);
+        int width = labels.length() * 3;
+        String[] rows = new String[ROWS];
+        for (int row = 0; row < ROWS; row += 1) {
+            String line = lines.get(row);
+            if (line.length() > width) {
+                throw new IllegalArgumentException("row " + (row + 1) + " is longer than "
+                        + labels.length() + " cells");
+            }
+            char[] padded = new char[width];
+            Arrays.fill(padded, ' ');
+            line.getChars(0, line.length(), padded, 0);
+            rows[row] = new String(padded);
+        }
+        int[] glyphs = new int[labels.length()];
+        int[] glyphDigits = new int[labels.length()];
+        for (int n = 0; n < glyphs.length; n += 1) {
+            int digit = labels.charAt(n) - '0';
+            if (digit < 0 || digit >= DIGITS) {
+                throw new IllegalArgumentException("'" + labels.charAt(n) + "' is not a digit");
+            }
+            int glyph = GlyphTable.glyphOf(rows, n * 3);
+            if ((glyph & GlyphTable.INVALID) != 0 || glyph == 0) {
+                throw new IllegalArgumentException("cell " + (n + 1) + " is not a glyph of segments");
+            }
+            glyphs[n] = glyph;
+            glyphDigits[n] = digit;
+        }
+        return compile(glyphs, glyphDigits);
+    }
+
+    /**
+     * Build the direct-index tables of a font. Every glyph of the font gets its digit, and every possible glyph
+     * gets the set of digits with a glyph one segment away, as a bit mask. Equal masks share one char array.
+     *
+     * @param glyphs      the glyphs of the font
+     * @param glyphDigits the digit of every glyph
+     * @return the compiled tables
+     * @throws IllegalArgumentException if a glyph is used for two digits, or a digit has no glyph
+     */
+    static FontTables compile(int[] glyphs, int[] glyphDigits) {
+        int[] digitOfGlyph = new int[GlyphTable.SIZE];
+        Arrays.fill(digitOfGlyph, NO_DIGIT);
+        int definedDigits = 0;
+        for (int n = 0; n < glyphs.length; n += 1) {
+            int glyph = glyphs[n];
+            if (digitOfGlyph[glyph] != NO_DIGIT && digitOfGlyph[glyph] != glyphDigits[n]) {
+                throw new IllegalArgumentException("the same glyph is used for " + digitOfGlyph[glyph]
+                        + " and " + glyphDigits[n]);
+            }
+            digitOfGlyph[glyph] = glyphDigits[n];
+            definedDigits |= 1 << glyphDigits[n];
+        }
+        if (definedDigits != (1 << DIGITS) - 1) {
+            throw new IllegalArgumentException("a font needs a glyph for every digit from 0 to 9");
+        }
+
+        char[][] sets = new char[1 << DIGITS][];
+        char[] digits = new char[GlyphTable.SIZE];
+        char[][] repairs = new char[GlyphTable.SIZE][];
+        int[] alternativeMasks = new int[DIGITS];
+        for (int glyph = 0; glyph < GlyphTable.SIZE; glyph += 1) {
+            int digit = digitOfGlyph[glyph];
+            digits[glyph] = digit == NO_DIGIT ? GlyphTable.UNKNOWN : (char) ('0' + digit);
+            int mask = 0;
+            if ((glyph & ~GlyphTable.SEGMENT_MASK) == 0) {
+                for (int n = 0; n < glyphs.length; n += 1) {
+                    if (Integer.bitCount(glyph ^ glyphs[n]) == 1 && glyphDigits[n] != digit) {
+                        mask |= 1 << glyphDigits[n];
+                    }
+                }
+            }
+            if (digit != NO_DIGIT) {
+                alternativeMasks[digit] |= mask;
+            }
+            repairs[glyph] = setOf(sets, mask);
+        }
+        return new FontTables(glyphs.clone(), glyphDigits.clone(), digits, repairs,
+                recoveryRepairsOf(alternativeMasks));
+    }
+
+    private static char[] setOf(char[][] sets, int mask) {
+        if (sets[mask] == null) {
+            char[] set = new char[Integer.bitCount(mask)];
+            int n = 0;
+            for (int digit = 0; digit < DIGITS; digit += 1) {
+                if ((mask & (1 << digit)) != 0) {
+                    set[n] = (char) ('0' + digit);
+                    n += 1;
+                }
+            }
+            sets[mask] = set;
+        }
+        return sets[mask];
+    }
+
+    /**
+     * For every weight, digit and residue, the one replacement of the digit that brings the residue to 0, if it is
+     * one of the alternatives of any glyph of the digit. See RecoveryTable and ScannerFont.repairOf().
+     */
+    private static byte[] recoveryRepairsOf(int[] alternativeMasks) {
+        byte[] repairs = new byte[Checksum.MODULUS * DIGITS * Checksum.MODULUS];
+        int n = 0;
+        for (int weight = 0; weight < Checksum.MODULUS; weight += 1) {
+            for (int digit = 0; digit < DIGITS; digit += 1) {
+                for (int residue = 0; residue < Checksum.MODULUS; residue += 1) {
+                    int repair = weight == 0 ? RecoveryTable.NONE : RecoveryTable.solve(weight, residue, digit);
+                    boolean isAlternative = repair >= 0 && (alternativeMasks[digit] & (1 << repair)) != 0;
+                    repairs[n] = (byte) (isAlternative ? repair : RecoveryTable.NONE);
+                    n += 1;
+                }
+            }
+        }
+        return repairs;
+    }
+
+    /**
+     * @param digit the digit value 0 to 9
+     * @return the first glyph of the digit in the font definition
+     */
+    int glyphOfDigit(int digit) {
+        for (int n = 0; n < glyphs.length; n += 1) {
+            if (glyphDigits[n] == digit) {
+                return glyphs[n];
+            }
+        }
+        throw new IllegalArgumentException("no glyph for " + digit);
+    }
+
+    /**
+     * @param weight  the weight of the position in the checksum
+     * @param digit   the digit read at the position
+     * @param residue the residue of the entry
+     * @return the alternative of digit that repairs the checksum, or RecoveryTable.NONE
+     */
+    int repairOf(int weight, int digit, int residue) {
+        return recoveryRepairs[((weight % Checksum.MODULUS) * DIGITS + digit) * Checksum.MODULUS + residue];
+    }
+}
@@ -0,0 +1,100 @@
+package de.pruefbit.kata;
+
+/**
+ * The precomputed lookup tables of the standard ScannerFont and of RecoveryTable.
+ * <p>
+ * Generated by TableGenerator. Do not edit, run the generator instead.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+final class GeneratedTables {
+
+    private GeneratedTables() {}
+
+    /**
+     * The glyph of every digit.
+     */
+    static final int[] DIGIT_GLYPHS = {490, 288, 242, 434, 312, 410, 474, 290, 506, 442};
+
+    /**
+     * All the different sets of alternatives. REPAIRS refers to them, 'A' is the first.
+     */
+    static final String[] REPAIR_SETS = {
+            "", "1", "7", "4", "2", "5", "23", "9", "6", "0",
+            "28", "14", "37", "49", "8", "35", "69", "09", "3", "358",
+            "06", "58", "238", "069"
+    };
+
+    /**
+     * The digit of every glyph, or '?'.
+     */
+    static final String DIGITS = ""
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "??????????????????????????????????????????????????2?????????????"
+            + "????????????????????????????????1?7?????????????????????4???????"
+            + "????????????????????????????????????????????????????????????????"
+            + "??????????????????????????5???????????????????????3???????9?????"
+            + "??????????????????????????6???????????????0???????????????8?????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????"
+            + "????????????????????????????????????????????????????????????????";
+
+    /**
+     * The set of alternatives of every glyph.
+     */
+    static final String REPAIRS = ""
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAABACAAAAAAAAAAAAAAAAAAAAADAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAEAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAFAAAAAAAAAAAAAAAAAAAAAAAGAAAAAAAHAAAAA"
+            + "AAAAAAAAAAAAAAAAAAEAAAAAAAIAAAAAAAEAAAAAAAJAAAAAEAAAAAAAAAKAAAAA"
+            + "BACAAAAAAAAAAAAAAAAAAAAADAFAAAAACABAAAAALACAAAAALAMAAAAAAANAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAIAAAAABACAAAAAAAJAAAAAAAAAAAAADAOAAAAA"
+            + "AAAAAAAAAAFAAAAAAAPAAAAAFAQAAAAABAMAAAAAAARAAAAASAHAAAAANATAAAAA"
+            + "AAAAAAAAAAUAAAAAAAIAAAAAIAVAAAAAAAJAAAAAJAOAAAAAAAWAAAAAOAXAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA"
+            + "AAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAAA";
+
+    /**
+     * The repair for every weight, digit and residue, or '-' for none.
+     */
+    static final String RECOVERY_REPAIRS = ""
+            + "----------------------------------------------------------------"
+            + "-------------------------------------------------8------------7-"
+            + "--------------------9-----------------------9--6-5-------8------"
+            + "-1------6-----0-9-8--5-3----------8--------------7--------------"
+            + "-------9--------------9-----6---5----8----1-------------60---9--"
+            + "38-----5-----------8-----7---------------------9----------------"
+            + "---------6-9---5-8------------1-----0---6-9---5-8---3----8------"
+            + "------------7---------------------9------------------96------85-"
+            + "-------1---------------96-0--3-85---------8---------7-----------"
+            + "----------9--------------------9---6-----8---5-------------1----"
+            + "----90--6-----8--35--------8-----------7---------------------9--"
+            + "----------------6---9-------5---8---1--------6--09-------53--8--"
+            + "------------8--7---------------------9-----------------------69-"
+            + "-----------58-----------1--0-69------------58-3---8-------------"
+            + "--7---------------------9---------------9-6-------------8-5-----"
+            + "-1---------9-6---0-----3---8-5-----8------7---------------------"
+            + "9----------------------6-----9------8----5-----------1--9---06--"
+            + "----5-----83--------8--------7---------------------9------------"
+            + "----6--9--------8-------5-----1------9-0-----6------3-5--8";
+
+    /**
+     * The fill-in for every weight and residue, '-' for none, or '*' for any digit.
+     */
+    static final String RECOVERY_FILL_INS = ""
+            + "*----------0-98765432105-49382716073-62951840852-74196302468-135"
+            + "79097531-86420369147-25804815926-37061728394-50123456789-";
+}
@@ -0,0 +1,139 @@
+package de.pruefbit.kata;
+
+/**
+ * The glyph lookup tables behind the decoder.
+ * <p>
+ * A scanned symbol is a cell of 3x3 characters. Every one of the nine cell positions may only hold a blank
+ * or one specific segment character ("_" or "|"), so a cell fits into 9 bits, one bit per segment position.
+ * This 9 bit value (the "glyph") is used as a direct index into the primitive tables of a ScannerFont, that give
+ * the digit and the one-stroke-away alternatives of the glyph. Decoding one symbol thus costs one array access
+ * and does not allocate anything.
+ * <p>
+ * A character that does not belong to its cell position sets the INVALID bit. This points into the upper half
+ * of the tables, where nothing can be recognized.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+final class GlyphTable {
+
+    private GlyphTable() {}
+
+    static final int INVALID = 1 << 9;
+    static final int SIZE = INVALID << 1;
+    static final char UNKNOWN = '?';
+
+    /**
+     * The segment positions a glyph can use. The corners at the top are never part of a digit.
+     */
+    static final int SEGMENT_MASK = 0b111111010;
+
+    /**
+     * The byte classes of the scan format, as bits, so the classes of a whole line can be or-ed together while it
+     * is scanned. A scanned line may only hold BLANK and STROKE bytes, a separator line only BLANK bytes.
+     */
+    static final int BLANK = 1;
+    static final int STROKE = 2;
+    static final int CARRIAGE_RETURN = 4;
+    static final int FOREIGN = 8;
+
+    private static final String SEGMENTS = " _ |_||_|";
+
+    private static final short[] segmentBits = new short[9 << 8];
+    private static final byte[] byteClasses = new byte[256];
+
+    static {
+        for (int segment = 0; segment < 9; segment += 1) {
+            for (int b = 0; b < 256; b += 1) {
+                segmentBits[segment << 8 | b] = (short) segmentBit(segment, (char) b);
+            }
+        }
+        for (int b = 0; b < 256; b += 1) {
+            byteClasses[b] = (byte) (b == ' ' ? BLANK
+                    : b == '_' || b == '|' ? STROKE
+                    : b == '\r' ? CARRIAGE_RETURN
+                    : FOREIGN);
+        }
+    }
+
+    /**
+     * Pack the 3x3 cell starting at symbolPosition into its glyph.
+     * The first three strings of scanLine are the three rows of the cell.
+     *
+     * @param scanLine       the three scanned rows
+     * @param symbolPosition the column where the cell begins
+     * @return the glyph, possibly with the INVALID bit set
+     */
+    static int glyphOf(String[] scanLine, int symbolPosition) {
+        int glyph = 0;
+        for (int row = 0; row < 3; row += 1) {
+            String line = scanLine[row];
+            for (int column = 0; column < 3; column += 1) {
+                glyph |= segmentBit(row * 3 + column, line.charAt(symbolPosition + column));
+            }
+        }
+        return glyph;
+    }
+
+    /**
+     * Pack the 3x3 cell starting at symbolPosition into its glyph, reading the rows from raw bytes.
+     * Every byte is classified by one lookup in a table per cell position, so there are no branches, and
+     * decoding a wide row is a straight loop over the cells.
+     *
+     * @param buffer         the raw scan bytes
+     * @param row0           offset of the first row in buffer
+     * @param row1           offset of the second row in buffer
+     * @param row2           offset of the third row in buffer
+     * @param symbolPosition the column where the cell begins
+     * @return the glyph, possibly with the INVALID bit set
+     */
+    static int glyphOf(byte[] buffer, int row0, int row1, int row2, int symbolPosition) {
+        return glyphOf(buffer, row0 + symbolPosition, buffer, row1 + symbolPosition, buffer, row2 + symbolPosition);
+    }
+
+    /**
+     * Pack a 3x3 cell into its glyph, with each row of the cell in its own byte array.
+     *
+     * @param top      the bytes of the first row
+     * @param topAt    where the cell begins in top
+     * @param middle   the bytes of the second row
+     * @param middleAt where the cell begins in middle
+     * @param bottom   the bytes of the third row
+     * @param bottomAt where the cell begins in bottom
+     * @return the glyph, possibly with the INVALID bit set
+     */
+    static int glyphOf(byte[] top, int topAt, byte[] middle, int middleAt, byte[] bottom, int bottomAt) {
+        return segmentBits[top[topAt] & 0xff]
+                | segmentBits[1 << 8 | top[topAt + 1] & 0xff]
+                | segmentBits[2 << 8 | top[topAt + 2] & 0xff]
+                | segmentBits[3 << 8 | middle[middleAt] & 0xff]
+                | segmentBits[4 << 8 | middle[middleAt + 1] & 0xff]
+                | segmentBits[5 << 8 | middle[middleAt + 2] & 0xff]
+                | segmentBits[6 << 8 | bottom[bottomAt] & 0xff]
+                | segmentBits[7 << 8 | bottom[bottomAt + 1] & 0xff]
+                | segmentBits[8 << 8 | bottom[bottomAt + 2] & 0xff];
+    }
+
+    private static int segmentBit(int segment, char ch) {
+        if (ch == ' ') {
+            return 0;
+        }
+        return ch == SEGMENTS.charAt(segment) ? 1 << segment : INVALID;
+    }
+
+    /**
+     * @param b a byte of a scan file, but not a line feed
+     * @return its byte class, one of BLANK, STROKE, CARRIAGE_RETURN or FOREIGN
+     */
+    static int byteClassOf(byte b) {
+        return byteClasses[b & 0xff];
+    }
+
+    /**
+     * @param glyph   a glyph without the INVALID bit
+     * @param segment the cell position 0 to 8, row by row
+     * @return the character at the cell position, when the glyph is rendered
+     */
+    static char segmentChar(int glyph, int segment) {
+        return (glyph & (1 << segment)) != 0 ? SEGMENTS.charAt(segment) : ' ';
+    }
+}
@@ -0,0 +1,72 @@
+package de.pruefbit.kata;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free latency histogram with one bucket per power of two nanoseconds.
+ * <p>
+ * Recording costs one LongAdder increment per bucket and one for the sum, so many threads can record into the
+ * same histogram without contention. Percentiles are only accurate to the bucket, i.e. within a factor of two,
+ * which is good enough to see where the time goes.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+final class LatencyHistogram {
+
+    private static final int BUCKETS = 64;
+
+    private final LongAdder[] buckets = new LongAdder[BUCKETS];
+    private final LongAdder totalNanos = new LongAdder();
+
+    LatencyHistogram() {
+        for (int n = 0; n < BUCKETS; n += 1) {
+            buckets[n] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        buckets[BUCKETS - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+        totalNanos.add(nanos);
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    long totalNanos() {
+        return totalNanos.sum();
+    }
+
+    /**
+     * @param percentile a value between 0 and 100
+     * @return the upper bound of the bucket the percentile falls into, or 0 if nothing was recorded
+     */
+    long percentileNanos(double percentile) {
+        long[] counts = new long[BUCKETS];
+        long count = 0;
+        for (int n = 0; n < BUCKETS; n += 1) {
+            counts[n] = buckets[n].sum();
+            count += counts[n];
+        }
+        long rank = (long) Math.ceil(count * percentile / 100.0);
+        long seen = 0;
+        for (int n = 0; n < BUCKETS; n += 1) {
+            seen += counts[n];
+            if (seen >= rank && counts[n] > 0) {
+                return n == 0 ? 0 : (1L << n) - 1;
+            }
+        }
+        return 0;
+    }
+
+    void reset() {
+        for (LongAdder bucket : buckets) {
+            bucket.reset();
+        }
+        totalNanos.reset();
+    }
+}
@@ -0,0 +1,254 @@
+package de.pruefbit.kata;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * An optional recovery mode, that may change up to k digits of an entry instead of only one.
+ * <p>
+ * Every unreadable digit must be replaced by one of the digits its glyph might have been meant to be, and every
+ * readable digit may be replaced by one of the digits that are one stroke away. Each replacement counts as one
+ * edit. The search first looks for repairs with as few edits as possible, and only tries more edits if there are
+ * none: one repair recovers the entry, more than one make it " AMB". With k = 1, this gives the same results as
+ * OcrDecode.tryRecoverErrOrIll(), but entries with two or more unreadable digits can now be recovered too.
+ * <p>
+ * The search never enumerates the full cross product of all alternatives. It keeps the residue of the checksum
+ * while it goes, and for the last edit it looks up the single digit that brings the residue to 0 in the recovery
+ * table, so the last level of the search costs one lookup per position. It also stops as soon as a second repair
+ * shows that the entry is ambiguous.
+ * <p>
+ * An entry without a repair is marked like OcrDecode.tryRecoverErrOrIll() does: " ILL" if two or more digits
+ * are unreadable, " ERR" otherwise.
+ * <p>
+ * Each entry has a hard budget of search steps and of time. If the budget runs out, the entry is not recovered
+ * and is marked as if there were no repair at all. The exhaustedCount() tells how often this happened.
+ * One instance can be used by many threads.
+ * <p>
+ * The entries are decoded and recovered with a ScannerFont, ScannerFont.STANDARD unless another one is given.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class MultiDigitRecovery {
+
+    private static final int TIME_CHECK_INTERVAL = 1 << 10;
+
+    private final int maxEdits;
+    private final long maxSteps;
+    private final long maxNanos;
+    private final ScannerFont font;
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param maxEdits the maximum number of digits that may be replaced
+     * @param maxSteps the maximum number of search steps per entry
+     * @param maxNanos the maximum time per entry, in nanoseconds
+     */
+    public MultiDigitRecovery(int maxEdits, long maxSteps, long maxNanos) {
+        this(maxEdits, maxSteps, maxNanos, ScannerFont.STANDARD);
+    }
+
+    /**
+     * @param maxEdits the maximum number of digits that may be replaced
+     * @param maxSteps the maximum number of search steps per entry
+     * @param maxNanos the maximum time per entry, in nanoseconds
+     * @param font     the font to decode the entries with, and to take the alternatives and repairs from
+     */
+    public MultiDigitRecovery(int maxEdits, long maxSteps, long maxNanos, ScannerFont font) {
+        if (maxEdits < 1 || maxSteps < 1 || maxNanos < 1) {
+            throw new IllegalArgumentException("edits, steps and time must all be positive");
+        }
+        this.maxEdits = maxEdits;
+        this.maxSteps = maxSteps;
+        this.maxNanos = maxNanos;
+        this.font = font;
+    }
+
+    /**
+     * Run the whole pipeline for one entry: decode, validate the checksum and, if the checksum is bad, recover.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @return the result, in the same form as the User Story 4 output files
+     */
+    public String evaluate(String[] scanLine) {
+        String actualResult = OcrDecode.decodeEntry(scanLine, font);
+        if (!OcrDecode.validate(actualResult)) {
+            actualResult = tryRecoverErrOrIll(scanLine, actualResult);
+        }
+        return actualResult;
+    }
+
+    /**
+     * The same contract as OcrDecode.tryRecoverErrOrIll(), but with up to maxEdits replaced digits.
+     *
+     * @param scanLine     the scan line with bad checksum and/or illegal symbols
+     * @param actualResult the currently known decoded digits, may contain '?' for unreadable symbols
+     * @return the recovered digit string, or actualResult with a suffix " AMB", " ERR" or " ILL"
+     */
+    public String tryRecoverErrOrIll(String[] scanLine, String actualResult) {
+        int[] glyphs = new int[actualResult.length()];
+        for (int n = 0; n < glyphs.length; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(scanLine, n * 3);
+        }
+        return tryRecoverErrOrIll(glyphs, actualResult);
+    }
+
+    /**
+     * The same as tryRecoverErrOrIll() above, for an entry that was already packed into glyphs.
+     */
+    String tryRecoverErrOrIll(int[] glyphs, String actualResult) {
+        Search search = new Search(glyphs, actualResult);
+        for (int edits = Math.max(1, search.unknowns); edits <= maxEdits; edits += 1) {
+            search.run(edits);
+            if (search.exhausted) {
+                exhausted.increment();
+                break;
+            }
+            if (search.solutions > 1) {
+                return actualResult + " AMB";
+            }
+            if (search.solutions == 1) {
+                return search.solution();
+            }
+        }
+        return actualResult + (search.unknowns > 1 ? " ILL" : " ERR");
+    }
+
+    /**
+     * @return how often the budget of an entry ran out before the search was complete
+     */
+    public long exhaustedCount() {
+        return exhausted.sum();
+    }
+
+    /**
+     * The state of the search for one entry. Positions are edited left to right, each at most once, so every
+     * set of edits is visited only once.
+     */
+    private final class Search {
+        private final int length;
+        private final int[] glyphs;
+        private final int[] digits;
+        private final boolean[] unknown;
+        private final char[][] alternatives;
+        private final int unknowns;
+        private final int[] editedDigits;
+        private final int[] firstSolution;
+        private final long deadline;
+        private long steps;
+        private int solutions;
+        private boolean exhausted;
+
+        Search(int[] glyphs, String actualResult) {
+            length = actualResult.length();
+            this.glyphs = glyphs;
+            digits = new int[length];
+            unknown = new boolean[length];
+            alternatives = new char[length][];
+            editedDigits = new int[length];
+            firstSolution = new int[length];
+            int count = 0;
+            for (int n = 0; n < length; n += 1) {
+                char ch = actualResult.charAt(n);
+                unknown[n] = ch == GlyphTable.UNKNOWN;
+                digits[n] = unknown[n] ? 0 : ch - '0';
+                alternatives[n] = font.alternativesOf(glyphs[n]);
+                if (unknown[n]) {
+                    count += 1;
+                }
+            }
+            unknowns = count;
+            deadline = System.nanoTime() + maxNanos;
+        }
+
+        void run(int edits) {
+            solutions = 0;
+            System.arraycopy(digits, 0, editedDigits, 0, length);
+            search(0, edits, Checksum.residue(digits, length), unknowns);
+        }
+
+        String solution() {
+            char[] result = new char[length];
+            for (int n = 0; n < length; n += 1) {
+                result[n] = (char) ('0' + firstSolution[n]);
+            }
+            return new String(result);
+        }
+
+        /**
+         * @return false if the search shall stop, because the entry is ambiguous or the budget ran out
+         */
+        private boolean search(int from, int edits, int residue, int unknownsLeft) {
+            if (solutions > 1 || !withinBudget()) {
+                return false;
+            }
+            if (edits < unknownsLeft) {
+                return true;
+            }
+            if (edits == 1) {
+                return lastEdit(from, residue, unknownsLeft);
+            }
+            for (int position = from; position < length; position += 1) {
+                int weight = Checksum.weight(position, length);
+                for (char ch : alternatives[position]) {
+                    int digit = ch - '0';
+                    editedDigits[position] = digit;
+                    int changed = Checksum.residueAfter(residue, weight, digits[position], digit);
+                    if (!search(position + 1, edits - 1, changed, unknownsLeft - (unknown[position] ? 1 : 0))) {
+                        editedDigits[position] = digits[position];
+                        return false;
+                    }
+                }
+                editedDigits[position] = digits[position];
+                if (unknown[position]) {
+                    break;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * The last edit is looked up, not searched: for every position there is at most one digit that brings
+         * the residue to 0. If an unreadable digit is left, the last edit must go there.
+         */
+        private boolean lastEdit(int from, int residue, int unknownsLeft) {
+            for (int position = from; position < length; position += 1) {
+                if (unknownsLeft > 0 && !unknown[position]) {
+                    continue;
+                }
+                int weight = Checksum.weight(position, length);
+                if (unknown[position]) {
+                    int fillIn = RecoveryTable.fillInOf(weight, residue);
+                    for (char ch : alternatives[position]) {
+                        if (fillIn == RecoveryTable.ANY || ch - '0' == fillIn) {
+                            found(position, ch - '0');
+                        }
+                    }
+                    return solutions <= 1;
+                }
+                int repair = font.repairOf(weight, digits[position], glyphs[position], residue);
+                if (repair != RecoveryTable.NONE) {
+                    found(position, repair);
+                    if (solutions > 1) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        private void found(int position, int digit) {
+            solutions += 1;
+            if (solutions == 1) {
+                System.arraycopy(editedDigits, 0, firstSolution, 0, length);
+                firstSolution[position] = digit;
+            }
+        }
+
+        private boolean withinBudget() {
+            steps += 1;
+            if (steps > maxSteps || (steps % TIME_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+                exhausted = true;
+            }
+            return !exhausted;
+        }
+    }
+}
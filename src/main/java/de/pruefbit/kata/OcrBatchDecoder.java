@@ -0,0 +1,349 @@
+package de.pruefbit.kata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * Decodes large scan files on all cores.
+ * <p>
+ * In a scan file, every entry is a record of fixed size: four lines of the same length, each with the same line
+ * terminator. The file is memory mapped, cut into chunks at entry boundaries, and the chunks are decoded in
+ * parallel. Each entry runs through the same pipeline as in the OcrScanReader, so the results look like the
+ * lines of the User Story 4 output files. The results are given back in input order.
+ * <p>
+ * The record layout is taken from the first line of the file. By default, entries that do not fit into this layout
+ * cause a runtime error. When malformed entries are reported instead, such an entry gives a MALFORMED result,
+ * like with the OcrScanReader, and so does an entry with a byte other than " ", "_" and "|" in its scanned lines
+ * or a byte other than " " in its separator line. The glyph table already flags every unexpected byte of a
+ * scanned line with the INVALID bit, so the scanned lines are only searched for foreign bytes when a glyph is
+ * INVALID. A corrupt entry that keeps its length does not shift the layout, so all the other entries are still
+ * decoded. An entry with a byte too many or too few shifts all entries after it out of the layout, so from the
+ * first such entry on, the rest of the file is decoded sequentially by an OcrScanReader, which finds the entries by
+ * their line breaks. Thus one corrupt entry still only spoils its own result, it just makes the rest of the file
+ * slower to decode. As with the OcrScanReader, the last entry may lack its separator line, and trailing lines that
+ * do not make up three scanned lines are ignored.
+ * <p>
+ * A chunk must fit into one mapped segment, which is at most 2 GB. A file whose records are too large for that,
+ * i.e. whose lines are some 64 K bytes long, or whose first line is longer than the probe of the layout, is decoded
+ * sequentially by an OcrScanReader as a whole.
+ * <p>
+ * All results are held in memory, so the heap must be large enough for one string per entry.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrBatchDecoder {
+
+    private static final int LINES_PER_ENTRY = 4;
+    private static final int ROWS_PER_ENTRY = 3;
+    private static final int ENTRIES_PER_CHUNK = 1 << 13;
+    private static final int LAYOUT_PROBE_SIZE = 1 << 16;
+    private static final int NO_MISS = -1;
+
+    /**
+     * You do not need to instantiate this class. All methods are static.
+     */
+    private OcrBatchDecoder() {}
+
+    /**
+     * Decode a scan file in parallel on the common fork-join pool.
+     *
+     * @param path the scan file to decode
+     * @return the results of all entries, in file order
+     * @throws IOException if the file can not be read
+     */
+    public static List<String> decode(Path path) throws IOException {
+        return decode(path, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Decode a scan file in parallel on the given fork-join pool.
+     *
+     * @param path the scan file to decode
+     * @param pool the pool that does the decoding work
+     * @return the results of all entries, in file order
+     * @throws IOException if the file can not be read
+     */
+    public static List<String> decode(Path path, ForkJoinPool pool) throws IOException {
+        return decode(path, pool, null);
+    }
+
+    /**
+     * Decode a scan file in parallel on the given fork-join pool, and take the results of repeated entries from
+     * a cache.
+     *
+     * @param path  the scan file to decode
+     * @param pool  the pool that does the decoding work
+     * @param cache the cache shared by all decoding threads, or null to run the pipeline for every entry
+     * @return the results of all entries, in file order
+     * @throws IOException if the file can not be read
+     */
+    public static List<String> decode(Path path, ForkJoinPool pool, OcrResultCache cache) throws IOException {
+        return decode(path, pool, cache, false);
+    }
+
+    /**
+     * Decode a scan file in parallel on the given fork-join pool, and either report malformed entries as results
+     * or throw an exception for the first one found.
+     *
+     * @param path            the scan file to decode
+     * @param pool            the pool that does the decoding work
+     * @param cache           the cache shared by all decoding threads, or null to run the pipeline for every entry
+     * @param reportMalformed true to give a MALFORMED result for malformed entries, false to throw
+     * @return the results of all entries, in file order
+     * @throws IOException if the file can not be read
+     */
+    public static List<String> decode(Path path, ForkJoinPool pool, OcrResultCache cache, boolean reportMalformed)
+            throws IOException {
+        return decode(path, pool, cache, reportMalformed, ScannerFont.STANDARD);
+    }
+
+    /**
+     * Decode a scan file in parallel on the given fork-join pool, with another font than the standard one.
+     *
+     * @param path            the scan file to decode
+     * @param pool            the pool that does the decoding work
+     * @param cache           the cache shared by all decoding threads, which must decode with the same font, or
+     *                        null to run the pipeline for every entry
+     * @param reportMalformed true to give a MALFORMED result for malformed entries, false to throw
+     * @param font            the font to recognize the glyphs with
+     * @return the results of all entries, in file order
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if the cache decodes with another font
+     */
+    public static List<String> decode(Path path, ForkJoinPool pool, OcrResultCache cache, boolean reportMalformed,
+                                      ScannerFont font) throws IOException {
+        OcrScanReader.checkFont(cache, font);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size == 0) {
+                return Collections.emptyList();
+            }
+            Layout layout = Layout.probe(channel);
+            if (layout == null || layout.entriesPerSegment() == 0) {
+                return decodeSequentially(channel, 0, Collections.emptyList(), cache, reportMalformed, font);
+            }
+            long entries = layout.entriesIn(size);
+            if (entries > Integer.MAX_VALUE) {
+                throw new IllegalArgumentException("too many entries in " + path + ": " + entries);
+            }
+            List<MappedByteBuffer> segments = map(channel, size, layout);
+            String[] results = new String[(int) entries];
+            int chunks = (int) ((entries + ENTRIES_PER_CHUNK - 1) / ENTRIES_PER_CHUNK);
+            int[] firstMisses = new int[chunks];
+            pool.submit(() -> IntStream.range(0, chunks).parallel()
+                    .forEach(chunk -> firstMisses[chunk] = decodeChunk(segments, layout, chunk, results, cache,
+                            reportMalformed, font)))
+                    .join();
+            for (int firstMiss : firstMisses) {
+                if (firstMiss != NO_MISS) {
+                    return decodeSequentially(channel, (long) firstMiss * layout.recordSize,
+                            Arrays.asList(results).subList(0, firstMiss), cache, reportMalformed, font);
+                }
+            }
+            return Arrays.asList(results);
+        }
+    }
+
+    /**
+     * Decode the entries from offset on with an OcrScanReader, which frames every entry by its line breaks. This is
+     * for the entries from the first one that does not fit into the layout on, which are out of place, and for
+     * files whose records are too large to be mapped in chunks.
+     */
+    private static List<String> decodeSequentially(FileChannel channel, long offset, List<String> before,
+                                                   OcrResultCache cache, boolean reportMalformed, ScannerFont font)
+            throws IOException {
+        List<String> results = new ArrayList<>(before);
+        channel.position(offset);
+        OcrScanReader reader = new OcrScanReader(channel, offset);
+        reader.setReportMalformed(reportMalformed);
+        reader.setFont(font);
+        reader.setCache(cache);
+        while (reader.hasNext()) {
+            results.add(reader.next());
+        }
+        return results;
+    }
+
+    /**
+     * A mapped buffer can not be larger than 2 GB, so larger files are mapped in several segments. Every segment
+     * holds a whole number of chunks, so no chunk ever spans two segments.
+     */
+    private static List<MappedByteBuffer> map(FileChannel channel, long size, Layout layout) throws IOException {
+        List<MappedByteBuffer> segments = new ArrayList<>();
+        long segmentSize = layout.entriesPerSegment() * layout.recordSize;
+        for (long offset = 0; offset < size; offset += segmentSize) {
+            segments.add(channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(segmentSize, size - offset)));
+        }
+        return segments;
+    }
+
+    /**
+     * @return the number of the first entry of the chunk that does not fit into the layout, or NO_MISS. The entries
+     * after it are not decoded.
+     */
+    private static int decodeChunk(List<MappedByteBuffer> segments, Layout layout, int chunk, String[] results,
+                                   OcrResultCache cache, boolean reportMalformed, ScannerFont font) {
+        long firstEntry = (long) chunk * ENTRIES_PER_CHUNK;
+        long entriesPerSegment = layout.entriesPerSegment();
+        ByteBuffer segment = segments.get((int) (firstEntry / entriesPerSegment));
+        int offset = (int) ((firstEntry % entriesPerSegment) * layout.recordSize);
+        int length = (int) Math.min((long) ENTRIES_PER_CHUNK * layout.recordSize, segment.limit() - offset);
+        byte[] bytes = new byte[length];
+        segment.get(offset, bytes, 0, length);
+
+        int entries = (int) Math.min(ENTRIES_PER_CHUNK, results.length - firstEntry);
+        int count = layout.lineLength / 3;
+        int[] glyphs = new int[count];
+        for (int n = 0; n < entries; n += 1) {
+            int base = n * layout.recordSize;
+            long fileOffset = firstEntry * layout.recordSize + base;
+            String reason = layout.check(bytes, base);
+            if (reason != null && reportMalformed) {
+                return (int) firstEntry + n;
+            }
+            if (reason == null) {
+                int invalid = 0;
+                for (int cell = 0; cell < count; cell += 1) {
+                    glyphs[cell] = GlyphTable.glyphOf(
+                            bytes, base, base + layout.lineStride, base + 2 * layout.lineStride, cell * 3);
+                    invalid |= glyphs[cell];
+                }
+                if (reportMalformed) {
+                    reason = layout.checkBytes(bytes, base, (invalid & GlyphTable.INVALID) != 0);
+                }
+            }
+            if (reason != null) {
+                if (!reportMalformed) {
+                    throw new IllegalArgumentException(DecodeResult.malformedMessage(fileOffset, reason));
+                }
+                results[(int) firstEntry + n] = DecodeResult.malformedMessage(fileOffset, reason);
+            } else {
+                results[(int) firstEntry + n] = cache == null
+                        ? OcrDecode.evaluate(glyphs, count, font) : cache.evaluate(glyphs, count);
+            }
+        }
+        return NO_MISS;
+    }
+
+    /**
+     * The record layout of a scan file, as found in its first line.
+     */
+    private static final class Layout {
+        private final int lineLength;
+        private final int terminatorLength;
+        private final int lineStride;
+        private final int recordSize;
+
+        private Layout(int lineLength, int terminatorLength) {
+            this.lineLength = lineLength;
+            this.terminatorLength = terminatorLength;
+            this.lineStride = lineLength + terminatorLength;
+            this.recordSize = LINES_PER_ENTRY * lineStride;
+        }
+
+        /**
+         * @return the layout, or null if the first line is longer than the probe
+         */
+        static Layout probe(FileChannel channel) throws IOException {
+            ByteBuffer probe = ByteBuffer.allocate((int) Math.min(LAYOUT_PROBE_SIZE, channel.size()));
+            while (probe.hasRemaining() && channel.read(probe, probe.position()) >= 0) {
+                // keep reading until the probe is full
+            }
+            probe.flip();
+            for (int i = 0; i < probe.limit(); i += 1) {
+                if (probe.get(i) == '\n') {
+                    int terminatorLength = i > 0 && probe.get(i - 1) == '\r' ? 2 : 1;
+                    int lineLength = i + 1 - terminatorLength;
+                    if (lineLength == 0 || lineLength % 3 != 0) {
+                        throw new IllegalArgumentException(
+                                "malformed scan entry at byte offset 0: line length " + lineLength
+                                        + " is not divisible by 3");
+                    }
+                    return new Layout(lineLength, terminatorLength);
+                }
+            }
+            if (probe.limit() == LAYOUT_PROBE_SIZE) {
+                return null;
+            }
+            throw new IllegalArgumentException("malformed scan entry at byte offset 0: no line break found");
+        }
+
+        /**
+         * The last entry counts if at least its three scanned lines are complete, even without their
+         * final line terminator.
+         */
+        long entriesIn(long size) {
+            long entries = size / recordSize;
+            long remainder = size % recordSize;
+            if (remainder >= ROWS_PER_ENTRY * lineStride - terminatorLength) {
+                entries += 1;
+            }
+            return entries;
+        }
+
+        /**
+         * @return the number of entries of a mapped segment, a multiple of ENTRIES_PER_CHUNK, which is 0 if the
+         * records are too large for a chunk to fit into a segment
+         */
+        long entriesPerSegment() {
+            long entries = Integer.MAX_VALUE / recordSize;
+            return entries - entries % ENTRIES_PER_CHUNK;
+        }
+
+        /**
+         * Make sure all line terminators of the entry at base are where the layout expects them.
+         *
+         * @return the reason why the entry does not fit into the layout, or null
+         */
+        String check(byte[] bytes, int base) {
+            for (int line = 0; line < LINES_PER_ENTRY; line += 1) {
+                int end = base + line * lineStride + lineLength;
+                if (end >= bytes.length) {
+                    break;
+                }
+                boolean terminated = terminatorLength == 1
+                        ? bytes[end] == '\n'
+                        : bytes[end] == '\r' && end + 1 < bytes.length && bytes[end + 1] == '\n';
+                if (!terminated) {
+                    return "line " + (line + 1) + " does not have length " + lineLength;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Make sure the entry at base only holds the bytes its lines may hold. The scanned lines are only searched
+         * if one of their glyphs is INVALID, the separator line is always searched.
+         *
+         * @return the reason why the entry is malformed, or null
+         */
+        String checkBytes(byte[] bytes, int base, boolean invalid) {
+            int allowed = GlyphTable.BLANK | GlyphTable.STROKE;
+            for (int line = invalid ? 0 : ROWS_PER_ENTRY; line < LINES_PER_ENTRY; line += 1) {
+                if (line == ROWS_PER_ENTRY) {
+                    allowed = GlyphTable.BLANK;
+                }
+                int start = base + line * lineStride;
+                int end = Math.min(start + lineLength, bytes.length);
+                for (int i = start; i < end; i += 1) {
+                    if ((GlyphTable.byteClassOf(bytes[i]) & ~allowed) != 0) {
+                        return "line " + (line + 1) + " has the unexpected byte 0x"
+                                + Integer.toHexString(0x100 | bytes[i] & 0xff).substring(1)
+                                + " at column " + (i - start + 1);
+                    }
+                }
+            }
+            return null;
+        }
+    }
+}
@@ -1,10 +1,5 @@
 package de.pruefbit.kata;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * This is just another Java implementation of the Bank OCR Kata.
  * You can find the kata at the Coding Dojo of Emmanuel Gaillot.<br><br>
@@ -14,6 +9,9 @@ import java.util.Map;
  * </ul>
  * <p>
  * I did implement all four user stories.
+ * <p>
+ * The methods here work on strings, with the outcome appended as a suffix. For results without strings, see
+ * DecodeResult.
  *
  * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
  * @version 1.0
@@ -27,74 +25,22 @@ public class OcrDecode {
      */
     private OcrDecode() {}
 
-    private static final String[] symbols = {
-            " _     _  _     _  _  _  _  _ ",
-            "| |  | _| _||_||_ |_   ||_||_|",
-            "|_|  ||_  _|  | _||_|  ||_| _|",
-            "000111222333444555666777888999"
-    };
-    private static final Map<Character, char[]> alternatives = new HashMap<>();
-
-    private static final String[] illegalSymbols = {
-            "    _  _  _  _  _           _  _  _  _     _  _  _                 _  _  _     _  _  _  _  _     _  _  _     _  _ ",
-            "| ||  | || || |  |  |    _| _   | _| _| _|  | _| _  _|| ||_ |_||_ |  |_ |_ |_  _ |_ |_   |   |_| _||_||_||_||_||_|",
-            "|_||_||_ | | _||_|     ||_ |_ |_  _ |   _| _|  | _|  |  |  |    _| _| _   ||_||_||_ | |     ||_||_|| ||_  _|  | _ ",
-            "000001002003004005006007008009010011012013014015016017018019020021022023024025026027028029030031032033034035036037"
-    };
-    private static final Map<String, char[]> possibleDigits = new HashMap<>();
+    private static volatile OcrMetrics metrics;
 
-    static {
-        alternatives.put('0', new char[]{'8'});
-        alternatives.put('1', new char[]{'7'});
-        alternatives.put('2', new char[]{});
-        alternatives.put('3', new char[]{'9'});
-        alternatives.put('4', new char[]{});
-        alternatives.put('5', new char[]{'6', '9'});
-        alternatives.put('6', new char[]{'5', '8'});
-        alternatives.put('7', new char[]{'1'});
-        alternatives.put('8', new char[]{'0', '6', '9'});
-        alternatives.put('9', new char[]{'5', '8'});
+    /**
+     * Switch the metrics of the decode pipeline on or off. They are off by default.
+     *
+     * @param metrics the metrics to record into from now on, or null to switch them off
+     */
+    public static void setMetrics(OcrMetrics metrics) {
+        OcrDecode.metrics = metrics;
     }
 
-    static {
-        possibleDigits.put("000", new char[]{'0'});
-        possibleDigits.put("001", new char[]{'0', '6'});
-        possibleDigits.put("002", new char[]{'0'});
-        possibleDigits.put("003", new char[]{'0'});
-        possibleDigits.put("004", new char[]{'0', '9'});
-        possibleDigits.put("005", new char[]{'0'});
-        possibleDigits.put("006", new char[]{'1'});
-        possibleDigits.put("007", new char[]{'1'});
-        possibleDigits.put("008", new char[]{'2'});
-        possibleDigits.put("009", new char[]{'2'});
-        possibleDigits.put("010", new char[]{'2'});
-        possibleDigits.put("011", new char[]{'2', '3'});
-        possibleDigits.put("012", new char[]{'2'});
-        possibleDigits.put("013", new char[]{'3'});
-        possibleDigits.put("014", new char[]{'3'});
-        possibleDigits.put("015", new char[]{'3'});
-        possibleDigits.put("016", new char[]{'3', '5'});
-        possibleDigits.put("017", new char[]{'4', '1'});
-        possibleDigits.put("018", new char[]{'4', '1'});
-        possibleDigits.put("019", new char[]{'4'});
-        possibleDigits.put("020", new char[]{'4'});
-        possibleDigits.put("021", new char[]{'5'});
-        possibleDigits.put("022", new char[]{'5'});
-        possibleDigits.put("023", new char[]{'5'});
-        possibleDigits.put("024", new char[]{'5'});
-        possibleDigits.put("025", new char[]{'6'});
-        possibleDigits.put("026", new char[]{'6'});
-        possibleDigits.put("027", new char[]{'6'});
-        possibleDigits.put("028", new char[]{'6'});
-        possibleDigits.put("029", new char[]{'7'});
-        possibleDigits.put("030", new char[]{'7'});
-        possibleDigits.put("031", new char[]{'8'});
-        possibleDigits.put("032", new char[]{'8', '2', '3'});
-        possibleDigits.put("033", new char[]{'8'});
-        possibleDigits.put("034", new char[]{'8', '2'});
-        possibleDigits.put("035", new char[]{'9', '4'});
-        possibleDigits.put("036", new char[]{'9', '4'});
-        possibleDigits.put("037", new char[]{'9'});
+    /**
+     * @return the metrics currently recorded into, or null if they are switched off
+     */
+    public static OcrMetrics getMetrics() {
+        return metrics;
     }
 
     /**
@@ -111,44 +57,129 @@ public class OcrDecode {
      * @return the digits recognized, as a string, in scanned order left to right
      */
     public static String decode(String[] scanLine) {
-        int symbolPosition = 0;
         int length = scanLine[0].length();
-        StringBuilder numberString = new StringBuilder();
-        while (symbolPosition < length) {
-            numberString.append(decodeOneDigit(extractOneSymbol(scanLine, symbolPosition), symbols).charAt(0));
-            symbolPosition += 3;
+        char[] numberString = new char[(length + 2) / 3];
+        for (int n = 0; n < numberString.length; n += 1) {
+            numberString[n] = ScannerFont.STANDARD.digitOf(GlyphTable.glyphOf(scanLine, n * 3));
         }
-        return numberString.toString();
+        return new String(numberString);
     }
 
-    private static String[] extractOneSymbol(String[] scanLine, int symbolPosition) {
-        String[] oneDigit = new String[3];
-        for (int n = 0; n < 3; n += 1) {
-            oneDigit[n] = scanLine[n].substring(symbolPosition, symbolPosition + 3);
+    /**
+     * Decode three rows of raw bytes, of any width. As with the strings, the length of the first row gives the
+     * significant width, which must be divisible by 3.
+     *
+     * @param row0 the first scanned row
+     * @param row1 the second scanned row
+     * @param row2 the third scanned row
+     * @return the digits recognized, as a string, in scanned order left to right
+     * @throws IllegalArgumentException if the width is not divisible by 3, or a row is shorter than the first
+     */
+    public static String decode(byte[] row0, byte[] row1, byte[] row2) {
+        if (row0.length % 3 != 0 || row1.length < row0.length || row2.length < row0.length) {
+            throw new IllegalArgumentException("the rows must hold complete cells");
+        }
+        int cells = row0.length / 3;
+        char[] numberString = new char[cells];
+        for (int n = 0; n < cells; n += 1) {
+            int symbolPosition = n * 3;
+            numberString[n] = ScannerFont.STANDARD.digitOf(
+                    GlyphTable.glyphOf(row0, symbolPosition, row1, symbolPosition, row2, symbolPosition));
         }
-        return oneDigit;
+        return new String(numberString);
     }
 
-    private static String decodeOneDigit(String[] oneDigit, String[] symbols) {
-        int symbolPosition = 0;
-        while (symbolPosition < symbols[0].length()) {
-            int matchCount = 0;
-            for (int n = 0; n < 3; n += 1) {
-                String scanLine = oneDigit[n];
-                String symbolLine = symbols[n].substring(symbolPosition, symbolPosition + 3);
-                if (scanLine.equals(symbolLine)) {
-                    matchCount += 1;
-                }
-            }
-            if (matchCount == 3) {
-                break;
-            }
-            symbolPosition += 3;
+    /**
+     * Decode three rows that lie in one contiguous buffer, e.g. a whole entry read from a scan file.
+     * The rows begin at offset, offset + stride and offset + 2 * stride, and are width bytes wide.
+     *
+     * @param buffer the raw scan bytes
+     * @param offset the offset of the first row in buffer
+     * @param stride the distance from one row to the next, i.e. the width plus the line terminator
+     * @param width  the number of bytes of each row, assumed to be divisible by 3
+     * @return the digits recognized, as a string, in scanned order left to right
+     */
+    public static String decode(byte[] buffer, int offset, int stride, int width) {
+        if (width % 3 != 0 || width > stride || offset + 2 * stride + width > buffer.length) {
+            throw new IllegalArgumentException("the rows must hold complete cells within the buffer");
         }
-        if (symbolPosition >= symbols[0].length()) {
-            return "???";
+        char[] numberString = new char[width / 3];
+        for (int n = 0; n < numberString.length; n += 1) {
+            numberString[n] = ScannerFont.STANDARD.digitOf(
+                    GlyphTable.glyphOf(buffer, offset, offset + stride, offset + 2 * stride, n * 3));
         }
-        return symbols[3].substring(symbolPosition, symbolPosition + 3);
+        return new String(numberString);
+    }
+
+    /**
+     * The decode stage of the pipeline. The same as decode(), but recorded in the metrics, so that only the entries
+     * of the pipeline are timed, and not every call of decode(), e.g. by a generator of test data or the setup of a
+     * benchmark.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @return the digits recognized, as a string, in scanned order left to right
+     */
+    static String decodeEntry(String[] scanLine) {
+        OcrMetrics metrics = OcrDecode.metrics;
+        if (metrics == null) {
+            return decode(scanLine);
+        }
+        long start = System.nanoTime();
+        String digits = decode(scanLine);
+        metrics.recordDecode(System.nanoTime() - start);
+        return digits;
+    }
+
+    /**
+     * The same as decodeEntry() above, with the digits of another font.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @param font     the font to recognize the glyphs with
+     * @return the digits recognized, as a string, in scanned order left to right
+     */
+    static String decodeEntry(String[] scanLine, ScannerFont font) {
+        OcrMetrics metrics = OcrDecode.metrics;
+        if (metrics == null) {
+            return font.decode(scanLine);
+        }
+        long start = System.nanoTime();
+        String digits = font.decode(scanLine);
+        metrics.recordDecode(System.nanoTime() - start);
+        return digits;
+    }
+
+    /**
+     * The same as decodeEntry() above, for an entry in one contiguous buffer, see decode().
+     *
+     * @param buffer the raw scan bytes
+     * @param offset the offset of the first row in buffer
+     * @param stride the distance from one row to the next
+     * @param width  the number of bytes of each row
+     * @return the digits recognized, as a string, in scanned order left to right
+     */
+    static String decodeEntry(byte[] buffer, int offset, int stride, int width) {
+        OcrMetrics metrics = OcrDecode.metrics;
+        if (metrics == null) {
+            return decode(buffer, offset, stride, width);
+        }
+        long start = System.nanoTime();
+        String digits = decode(buffer, offset, stride, width);
+        metrics.recordDecode(System.nanoTime() - start);
+        return digits;
+    }
+
+    /**
+     * Runs the whole pipeline for one entry of packed cells: decode, validate the checksum and, if the checksum
+     * is bad, try to recover. The result has the same form as in the User Story 4 output files. This is an
+     * adapter of DecodeResult.evaluate(), which does the work.
+     *
+     * @param glyphs the packed cells, left to right
+     * @param count  the number of cells of the entry
+     * @param font   the font to recognize the glyphs with
+     * @return the decoded, validated and possibly recovered account number
+     */
+    static String evaluate(int[] glyphs, int count, ScannerFont font) {
+        return DecodeResult.evaluate(glyphs, count, font).toString();
     }
 
     /**
@@ -157,24 +188,36 @@ public class OcrDecode {
      * <p>
      * 1 From left to right go through the decode result (i.e.: the account number candidate).
      * 2 Multiply the leftmost digits value by 9, the next by 8 and so on down to the last digit, which
-     * can simply be added (i.e. it is only multiplied by 1).
+     * can simply be added (i.e. it is only multiplied by 1). Longer numbers work the same way, the
+     * leftmost of n digits is multiplied by n.
      * 3 Sum all multiplication results up.
      * 4 The account number is valid if divisible by 11, and not valid in any other case.
+     * An empty candidate is not valid.
      *
      * @param candidate the account number string under test
      * @return result
      */
     public static boolean isAccountNumberValid(String candidate) {
-        int checksum = 0;
-        for (int n = 9; n > 0; n -= 1) {
-            int index = 9 - n;
-            String ch = candidate.substring(index, index + 1);
-            if (ch.equals("?")) {
-                return false;
-            }
-            checksum += Integer.parseInt(ch) * n;
+        return Checksum.isValid(candidate, candidate.length());
+    }
+
+    /**
+     * The checksum stage of the pipeline. The same as isAccountNumberValid(), but recorded in the metrics, so that
+     * only the entries of the pipeline count as valid, and not every call of isAccountNumberValid(), e.g. by a
+     * generator of test data.
+     *
+     * @param candidate the account number string under test
+     * @return result
+     */
+    static boolean validate(String candidate) {
+        OcrMetrics metrics = OcrDecode.metrics;
+        if (metrics == null) {
+            return isAccountNumberValid(candidate);
         }
-        return (checksum % 11) == 0;
+        long start = System.nanoTime();
+        boolean isValid = isAccountNumberValid(candidate);
+        metrics.recordChecksum(System.nanoTime() - start, isValid);
+        return isValid;
     }
 
     /**
@@ -197,119 +240,48 @@ public class OcrDecode {
      * @return the candidate, with ERR or ILL appended, as appropriate
      */
     public static String markErrOrIll(String candidate) {
-        candidate += candidate.chars().filter(ch -> ch == '?').count() > 0 ? " ILL" : " ERR";
-        return candidate;
-    }
-
-    /**
-     * Very similar to the "numberOfUnrecognizedDigits()", but this returns a list of
-     * character positions where the unrecognized digits sit in the candidate string.
-     *
-     * @param candidate a string of digits
-     * @return a list with the character positions of the "?" characters, with count
-     * beginning at 0
-     */
-    private static List<Integer> unrecognizedDigitsIndex(String candidate) {
-        List<Integer> index = new ArrayList<>();
-        for (int i = 0; i < candidate.length(); i += 1) {
-            if (candidate.charAt(i) == '?') {
-                index.add(i);
+        boolean isIllegal = candidate.indexOf(GlyphTable.UNKNOWN) >= 0;
+        OcrMetrics metrics = OcrDecode.metrics;
+        if (metrics != null) {
+            if (isIllegal) {
+                metrics.countIll();
+            } else {
+                metrics.countErr();
             }
         }
-        return index;
+        return candidate + (isIllegal ? " ILL" : " ERR");
     }
 
     /**
-     * In case, the candidate digits give a wrong checksum, we can try to recover
-     * one of the digits after the other, and append it to the alternatives list,
-     * if the guess gives a correct checksum.
-     *
-     * @param candidate is the erroneous digit string to recover
-     * @return the list of possible alternatives
-     */
-    private static List<String> recoverError(String candidate) {
-        List<String> results = new ArrayList<>();
-        int position = 0;
-        int length = candidate.length();
-        while (position < length) {
-            char[] altDigits = alternatives.get(candidate.charAt(position));
-            for (char ch : altDigits) {
-                String checkable = candidate.substring(0, position) + ch + candidate.substring(position + 1);
-                if (isAccountNumberValid(checkable)) {
-                    results.add(checkable);
-                }
-            }
-            position += 1;
-        }
-        return results;
-    }
-
-    /**
-     * In case, there is just one single digit not recognized from the raw scan result, a list of alternative digits
-     * shall be searched from the illegalSymbols table, so that a recovery can be attempted.
-     *
-     * @param scanLine               the scan line with the illegal symbol
-     * @param unrecognizedDigitIndex where the illegal symbol is, in the scan line
-     * @return the alternative digit string
-     */
-    private static char[] findAlternatives(String[] scanLine, int unrecognizedDigitIndex) {
-        String[] oneSymbol = extractOneSymbol(scanLine, unrecognizedDigitIndex * 3);
-        return possibleDigits.get(decodeOneDigit(oneSymbol, illegalSymbols));
-    }
-
-    /**
-     * In case we already have a list of possible digits for unreadable scan symbols, we can check one after the other
-     * if it gives a good or bad checksum. We collect alternatives that give good checksums.
-     *
-     * @param candidate    the digit string we want to recover one digit
-     * @param position     the position in candidate, where we found the recoverable digit
-     * @param alternatives the possible alternatives we can try to recover with
-     * @return the list of recovered possible candidate digit strings
-     */
-    private static List<String> recoverUnreadable(String candidate, int position, char[] alternatives) {
-        List<String> results = new ArrayList<>();
-        for (char ch : alternatives) {
-            String checkable = candidate.substring(0, position) + ch + candidate.substring(position + 1);
-            if (isAccountNumberValid(checkable)) {
-                results.add(checkable);
-            }
-        }
-        return results;
-    }
-
-    /**
-     * This routine brings the functionality of findAlternatives(), recoverError() and recoverUnreadable much closer
-     * together and creates a cohesive ensemble of the functionality.
+     * If the candidate digits give a wrong checksum, or one digit could not be read, try to recover.
+     * <p>
+     * For a wrong checksum, every digit may be replaced by one that is one stroke away. For one unreadable digit,
+     * it may be replaced by any digit its glyph is one stroke away from. If exactly one replacement gives a good
+     * checksum, it is applied. If there are several, the candidate is marked " AMB", if there is none, " ERR".
+     * With two or more unreadable digits, the candidate is marked " ILL". The work is done by DecodeResult.
      *
      * @param scanLine     the scan line with bad checksum and/or at least one illegal symbol
      * @param actualResult the currently known decoded digits, may contain the '?' for unreadable or illegal symbols
      * @return the new actualResult. May be a recovered digit string, or the unchanged actualResult, but with a
-     * suffix " AMB" or " ILL".
+     * suffix " AMB", " ERR" or " ILL".
      */
     public static String tryRecoverErrOrIll(String[] scanLine, String actualResult) {
-        List<Integer> unrecognizedDigitsIndex = unrecognizedDigitsIndex(actualResult);
-        if (unrecognizedDigitsIndex.size() == 0) {
-            List<String> recoveryCandidates = recoverError(actualResult);
-            actualResult = markAmbOrErr(recoveryCandidates, actualResult);
-        } else if (unrecognizedDigitsIndex.size() == 1) {
-            int unrecognizedDigitIndex = unrecognizedDigitsIndex.get(0);
-            char[] alternatives = findAlternatives(scanLine, unrecognizedDigitIndex);
-            List<String> recoveryCandidates = recoverUnreadable(actualResult, unrecognizedDigitIndex, alternatives);
-            actualResult = markAmbOrErr(recoveryCandidates, actualResult);
-        } else {
-            actualResult += " ILL";
+        int[] glyphs = new int[actualResult.length()];
+        for (int n = 0; n < glyphs.length; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(scanLine, n * 3);
         }
-        return actualResult;
+        return tryRecoverErrOrIll(glyphs, actualResult, ScannerFont.STANDARD);
     }
 
-    private static String markAmbOrErr(List<String> candidates, String actualResult) {
-        if (candidates.size() == 0) {
-            actualResult += " ERR";
-        } else if (candidates.size() > 1) {
-            actualResult += " AMB";
-        } else {
-            actualResult = candidates.get(0);
-        }
-        return actualResult;
+    /**
+     * The same as tryRecoverErrOrIll() above, but for an entry that was already packed into glyphs.
+     *
+     * @param glyphs       the packed cells of the entry
+     * @param actualResult the currently known decoded digits
+     * @param font         the font the glyphs were recognized with
+     * @return the new actualResult
+     */
+    static String tryRecoverErrOrIll(int[] glyphs, String actualResult, ScannerFont font) {
+        return DecodeResult.recover(glyphs, actualResult, font).toString();
     }
 }
@@ -0,0 +1,157 @@
+package de.pruefbit.kata;
+
+import java.io.BufferedOutputStream;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.FileSystemException;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
+
+/**
+ * The command line entry point: decodes scan files and writes one result line per entry to standard output.
+ * <p>
+ * This is meant for short-lived jobs, one per incoming file, so it is kept lean at startup. It only loads the
+ * classes of the pipeline itself, whose lookup tables are string constants precomputed by TableGenerator. There is
+ * no reflection and there are no lambdas on its path, and the library is compiled with inline string
+ * concatenation, so no invokedynamic call site has to be bootstrapped. It runs from an AppCDS archive, and builds
+ * into a GraalVM native image with the table classes initialized at build time. See the README for both.
+ * <p>
+ * Usage: OcrDecodeCli [scan-file ...]
+ * <p>
+ * Without a file, the scan is read from standard input. A malformed entry gives a result line with its byte
+ * offset and the reason, and decoding goes on with the next entry. A file that can not be read is reported on
+ * standard error, and decoding goes on with the next file. The exit status is 0 on success, 1 if an entry is
+ * malformed or a file can not be read, and 2 on wrong usage. The usage is checked before anything is decoded.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class OcrDecodeCli {
+
+    private OcrDecodeCli() {}
+
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    /**
+     * @param args the scan files to decode, in order
+     */
+    public static void main(String[] args) {
+        System.exit(run(args, new FileOutputStream(FileDescriptor.out)));
+    }
+
+    /**
+     * Decode the scan files and write the results to out.
+     *
+     * @param args the scan files to decode, in order, or none to read standard input
+     * @param out  where to write the results
+     * @return the exit status
+     */
+    public static int run(String[] args, OutputStream out) {
+        for (String arg : args) {
+            if (arg.startsWith("-")) {
+                System.err.println("usage: OcrDecodeCli [scan-file ...]");
+                return 2;
+            }
+        }
+        OutputStream results = new BufferedOutputStream(out, OUTPUT_BUFFER_SIZE);
+        long malformed = 0;
+        boolean failed = false;
+        try {
+            if (args.length == 0) {
+                try {
+                    malformed += decode(new OcrScanReader(System.in), results);
+                } catch (UncheckedIOException | IllegalArgumentException e) {
+                    report("-", e, results);
+                    failed = true;
+                }
+            }
+            for (String arg : args) {
+                OcrScanReader reader;
+                try {
+                    reader = OcrScanReader.open(Paths.get(arg));
+                } catch (IOException e) {
+                    report(arg, e, results);
+                    failed = true;
+                    continue;
+                }
+                try {
+                    malformed += decode(reader, results);
+                } catch (UncheckedIOException | IllegalArgumentException e) {
+                    report(arg, e, results);
+                    failed = true;
+                } finally {
+                    closeQuietly(reader);
+                }
+            }
+            results.flush();
+            return malformed == 0 && !failed ? 0 : 1;
+        } catch (IOException e) {
+            // only writing the results throws it, so there is no use in going on
+            System.err.print("standard output: ");
+            System.err.println(reasonOf(e));
+            return 1;
+        }
+    }
+
+    /**
+     * Print the reason why a scan file could not be read, after the results of the files before it.
+     */
+    private static void report(String file, Exception e, OutputStream results) {
+        flushQuietly(results);
+        System.err.print(file);
+        System.err.print(": ");
+        System.err.println(reasonOf(e instanceof UncheckedIOException ? e.getCause() : e));
+    }
+
+    /**
+     * The message of a file system exception is just the path, which is printed anyway.
+     */
+    private static String reasonOf(Throwable e) {
+        if (e instanceof NoSuchFileException) {
+            return "no such file";
+        }
+        if (e instanceof AccessDeniedException) {
+            return "access denied";
+        }
+        if (e instanceof FileSystemException) {
+            String reason = ((FileSystemException) e).getReason();
+            return reason != null ? reason : e.getClass().getSimpleName();
+        }
+        return e.getMessage();
+    }
+
+    /**
+     * @return the number of malformed entries
+     * @throws IOException if the results can not be written. Errors of reading the scan are unchecked.
+     */
+    private static long decode(OcrScanReader reader, OutputStream results) throws IOException {
+        reader.setReportMalformed(true);
+        while (reader.hasNext()) {
+            String result = reader.next();
+            for (int i = 0; i < result.length(); i += 1) {
+                results.write(result.charAt(i));
+            }
+            results.write('\n');
+        }
+        return reader.malformedCount();
+    }
+
+    private static void flushQuietly(OutputStream results) {
+        try {
+            results.flush();
+        } catch (IOException e) {
+            // the error is reported anyway
+        }
+    }
+
+    private static void closeQuietly(OcrScanReader reader) {
+        try {
+            reader.close();
+        } catch (IOException e) {
+            // all of the file was read already
+        }
+    }
+}
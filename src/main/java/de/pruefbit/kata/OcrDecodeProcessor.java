@@ -0,0 +1,261 @@
+package de.pruefbit.kata;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SubmissionPublisher;
+
+/**
+ * A stage for reactive pipelines: consumes the raw bytes of entries and publishes their results.
+ * <p>
+ * Every item is the bytes of one entry, as in a scan file: three rows of the same width, each ended by a line
+ * feed, optionally followed by the blank separator line. The rows are decoded right where they are, with
+ * OcrDecode.decode(buffer, offset, stride, width), so there are no strings per row. An item that is not three rows of
+ * complete cells ends the stream with an IllegalArgumentException.
+ * <p>
+ * Decoding and validating the checksum is cheap, so it runs right away for every entry, and entries with a good
+ * checksum are published at once. Entries that need recovery are handed over to a separate executor, so that they
+ * do not hold up the clean entries behind them. The results of the recovered entries are published in the order
+ * of their entries. Every result carries the sequence number of its entry, counted from 0, so that a subscriber
+ * can restore the input order if it needs to.
+ * <p>
+ * Memory stays bounded when the subscribers are slow. Entries are requested from upstream one at a time. At most
+ * maxPendingRecoveries entries are in recovery, wait for an earlier one, or wait to be published, and while that
+ * many are pending, no further entries are requested. Publishing blocks as long as the buffer of a subscriber is
+ * full, but it never blocks while holding the lock of the processor: results are put in order into a queue under
+ * the lock, and one thread at a time takes them out and publishes them after releasing the lock. So a slow
+ * subscriber only holds up that one thread, and neither the recovery workers nor onNext(), also if the recovery
+ * and the delivery share a pool.
+ * <p>
+ * Each result looks like a line of the User Story 4 output files, e.g. "490867715" or "888888888 AMB".
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrDecodeProcessor extends SubmissionPublisher<OcrDecodeProcessor.Result>
+        implements Flow.Processor<byte[], OcrDecodeProcessor.Result> {
+
+    private final Executor recoveryExecutor;
+    private final int maxPendingRecoveries;
+    private final Object lock = new Object();
+    private final ArrayDeque<Recovery> pendingRecoveries = new ArrayDeque<>();
+    private final ArrayDeque<Result> ready = new ArrayDeque<>();
+    private Flow.Subscription subscription;
+    private long nextSequence = 0;
+    private boolean requested = false;
+    private boolean publishing = false;
+    private boolean upstreamComplete = false;
+
+    /**
+     * A processor that delivers to its subscribers with the common pool, with the default buffer size.
+     *
+     * @param recoveryExecutor     the executor to recover entries with a bad checksum
+     * @param maxPendingRecoveries the maximum number of entries that are received, but not published yet
+     */
+    public OcrDecodeProcessor(Executor recoveryExecutor, int maxPendingRecoveries) {
+        this(recoveryExecutor, maxPendingRecoveries, ForkJoinPool.commonPool(), Flow.defaultBufferSize());
+    }
+
+    /**
+     * @param recoveryExecutor     the executor to recover entries with a bad checksum
+     * @param maxPendingRecoveries the maximum number of entries that are received, but not published yet
+     * @param deliveryExecutor     the executor to deliver the results to the subscribers
+     * @param maxBufferCapacity    the maximum number of results buffered for each subscriber
+     */
+    public OcrDecodeProcessor(Executor recoveryExecutor, int maxPendingRecoveries,
+                              Executor deliveryExecutor, int maxBufferCapacity) {
+        super(deliveryExecutor, maxBufferCapacity);
+        if (maxPendingRecoveries < 1) {
+            throw new IllegalArgumentException("at least one recovery must be allowed");
+        }
+        this.recoveryExecutor = recoveryExecutor;
+        this.maxPendingRecoveries = maxPendingRecoveries;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        synchronized (lock) {
+            if (this.subscription != null) {
+                subscription.cancel();
+                return;
+            }
+            this.subscription = subscription;
+        }
+        requestIfPossible();
+    }
+
+    @Override
+    public void onNext(byte[] entry) {
+        long sequence = nextSequence;
+        nextSequence += 1;
+        int width = widthOf(entry);
+        String actualResult;
+        try {
+            actualResult = OcrDecode.decodeEntry(entry, 0, width + 1, width);
+        } catch (IllegalArgumentException e) {
+            subscription.cancel();
+            onError(new IllegalArgumentException("entry " + sequence + " is not three rows of complete cells", e));
+            return;
+        }
+        if (OcrDecode.validate(actualResult)) {
+            synchronized (lock) {
+                requested = false;
+                ready.addLast(new Result(sequence, actualResult));
+            }
+        } else {
+            Recovery recovery = new Recovery(sequence);
+            synchronized (lock) {
+                requested = false;
+                pendingRecoveries.addLast(recovery);
+            }
+            try {
+                recoveryExecutor.execute(() -> recover(recovery, entry, width, actualResult));
+            } catch (RejectedExecutionException e) {
+                recover(recovery, entry, width, actualResult);
+            }
+        }
+        publishReady();
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        synchronized (lock) {
+            closeExceptionally(throwable);
+        }
+    }
+
+    @Override
+    public void onComplete() {
+        synchronized (lock) {
+            upstreamComplete = true;
+        }
+        publishReady();
+    }
+
+    /**
+     * @return the width of the rows of an entry, up to the first line feed
+     */
+    private static int widthOf(byte[] entry) {
+        int width = 0;
+        while (width < entry.length && entry[width] != '\n') {
+            width += 1;
+        }
+        return width;
+    }
+
+    /**
+     * Recover one entry, then queue all recovered results that do not wait for an earlier entry anymore.
+     */
+    private void recover(Recovery recovery, byte[] entry, int width, String actualResult) {
+        int[] glyphs = new int[width / 3];
+        for (int n = 0; n < glyphs.length; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(entry, 0, width + 1, 2 * (width + 1), n * 3);
+        }
+        String result = OcrDecode.tryRecoverErrOrIll(glyphs, actualResult, ScannerFont.STANDARD);
+        synchronized (lock) {
+            recovery.result = result;
+            while (!pendingRecoveries.isEmpty() && pendingRecoveries.peekFirst().result != null) {
+                Recovery done = pendingRecoveries.removeFirst();
+                ready.addLast(new Result(done.sequence, done.result));
+            }
+        }
+        publishReady();
+    }
+
+    /**
+     * Publish the queued results in order, unless another thread is at it already. Publishing may block, so it
+     * happens without the lock. Afterwards, request the next entry, or close when all entries are published.
+     */
+    private void publishReady() {
+        synchronized (lock) {
+            if (publishing) {
+                return;
+            }
+            publishing = true;
+        }
+        while (true) {
+            Result next;
+            synchronized (lock) {
+                next = ready.pollFirst();
+                if (next == null) {
+                    publishing = false;
+                    break;
+                }
+            }
+            if (!isClosed()) {
+                try {
+                    submit(next);
+                } catch (IllegalStateException e) {
+                    // closed by onError() meanwhile, so there is nobody to publish to anymore
+                }
+            }
+            requestIfPossible();
+        }
+        requestIfPossible();
+        boolean complete;
+        synchronized (lock) {
+            complete = upstreamComplete && pendingRecoveries.isEmpty() && ready.isEmpty() && !publishing;
+        }
+        if (complete) {
+            close();
+        }
+    }
+
+    /**
+     * Request the next entry, if none is requested yet, and not too many are pending.
+     */
+    private void requestIfPossible() {
+        Flow.Subscription upstream;
+        synchronized (lock) {
+            if (requested || upstreamComplete || subscription == null
+                    || pendingRecoveries.size() + ready.size() >= maxPendingRecoveries) {
+                return;
+            }
+            requested = true;
+            upstream = subscription;
+        }
+        upstream.request(1);
+    }
+
+    private static final class Recovery {
+        private final long sequence;
+        private String result;
+
+        private Recovery(long sequence) {
+            this.sequence = sequence;
+        }
+    }
+
+    /**
+     * The result of one entry, together with its sequence number.
+     */
+    public static final class Result {
+        private final long sequence;
+        private final String result;
+
+        private Result(long sequence, String result) {
+            this.sequence = sequence;
+            this.result = result;
+        }
+
+        /**
+         * @return the position of the entry in the input, counted from 0
+         */
+        public long sequence() {
+            return sequence;
+        }
+
+        /**
+         * @return the result, in the same form as the User Story 4 output files
+         */
+        public String result() {
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return sequence + ": " + result;
+        }
+    }
+}
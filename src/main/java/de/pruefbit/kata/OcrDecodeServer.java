@@ -0,0 +1,373 @@
+package de.pruefbit.kata;
+
+import javax.management.JMException;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A small decode server on localhost, so that other systems can share one warmed-up decoder instead of embedding
+ * the decoder and its own file-parsing loop.
+ * <p>
+ * The protocol is plain TCP. A client sends scan entries in the same format as the scan files, and gets back one
+ * result line per entry, in the order it sent them, each looking like a line of the User Story 4 output files.
+ * When the client shuts down its output, the server sends the remaining results and closes the connection. A
+ * malformed entry is answered with a line "ERROR " and the reason, and the connection is closed.
+ * <p>
+ * Each connection is served by its own task, reading through an OcrScanReader, on a virtual thread where the
+ * runtime has them. The batching is per connection:
+ * entries of one connection that arrive together are decoded one after the other into the same output buffer, and
+ * the buffer is sent when no further complete entry of that connection is waiting, or after MAX_BATCH entries. So a
+ * client that streams many entries gets its results in a few large writes, and a client that sends a single entry
+ * gets its result right away. Entries of different connections are not batched together; each connection runs the
+ * pipeline on its own task, and they only share the decoder tables and the cache.
+ * <p>
+ * A client can not make the server hold more than a few lines of its input: a line longer than
+ * OcrScanReader.MAX_LINE_LENGTH is a malformed entry. A connection may send at most a limit of bytes in total, by
+ * default DEFAULT_MAX_CONNECTION_BYTES, and the entry that goes beyond it is answered with an error line, too. After
+ * an error line, the server reads what the client still sends for a short while, up to MAX_LINGER_BYTES, before it
+ * closes the connection, so that the client gets the error line and not a reset.
+ * <p>
+ * If accepting a connection fails, e.g. because the process ran out of file descriptors, the error is reported on
+ * standard error and the server waits a little before it tries again, up to MAX_ACCEPT_BACKOFF_MILLIS, so it does
+ * not spin while the cause lasts.
+ * <p>
+ * The server counts connections and entries, and records the latency of every batch from the moment its first
+ * entry was complete until its results were sent. For the latency of the single stages, install OcrMetrics with
+ * OcrDecode.setMetrics().
+ * <p>
+ * Usage example:
+ * <pre>
+ *     try (OcrDecodeServer server = OcrDecodeServer.start(4711)) {
+ *         ...
+ *     }
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrDecodeServer implements Closeable {
+
+    /**
+     * The maximum number of results that are collected before they are sent.
+     */
+    public static final int MAX_BATCH = 256;
+
+    /**
+     * The longest wait after a failed accept, in milliseconds. The wait starts at 10 ms and doubles with every
+     * failure in a row.
+     */
+    public static final long MAX_ACCEPT_BACKOFF_MILLIS = 1000;
+
+    /**
+     * The number of bytes a connection may send by default, 1 GB.
+     */
+    public static final long DEFAULT_MAX_CONNECTION_BYTES = 1L << 30;
+
+    /**
+     * The most bytes read and dropped after an error line, before the connection is closed.
+     */
+    public static final int MAX_LINGER_BYTES = 1 << 20;
+
+    private static final int LINGER_MILLIS = 1000;
+
+    private static final long MIN_ACCEPT_BACKOFF_MILLIS = 10;
+    private static final int OUTPUT_BUFFER_SIZE = 1 << 16;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections;
+    private final OcrResultCache cache;
+    private final long maxConnectionBytes;
+    private final Thread acceptor;
+    private final Set<Socket> openSockets = ConcurrentHashMap.newKeySet();
+    private final LongAdder connectionCount = new LongAdder();
+    private final LongAdder acceptErrorCount = new LongAdder();
+    private final LongAdder entryCount = new LongAdder();
+    private final LatencyHistogram batchLatency = new LatencyHistogram();
+    private volatile boolean closed = false;
+
+    /**
+     * Bind the server socket and start to accept connections.
+     * <p>
+     * Every connection is one task of the executor, which blocks while it waits for its client. The executor must
+     * thus be able to run as many tasks at once as there shall be open connections, e.g. the one of
+     * newConnectionExecutor().
+     *
+     * @param address     the address to listen on, usually on the loopback interface
+     * @param connections the executor that serves the connections. It is shut down when the server is closed.
+     * @param cache       the cache of results to share between all connections, or null to not use one
+     * @throws IOException if the socket can not be bound
+     */
+    public OcrDecodeServer(InetSocketAddress address, ExecutorService connections, OcrResultCache cache)
+            throws IOException {
+        this(address, connections, cache, DEFAULT_MAX_CONNECTION_BYTES);
+    }
+
+    /**
+     * The same as the constructor above, with another limit of the bytes a connection may send.
+     *
+     * @param address            the address to listen on, usually on the loopback interface
+     * @param connections        the executor that serves the connections. It is shut down when the server is closed.
+     * @param cache              the cache of results to share between all connections, or null to not use one
+     * @param maxConnectionBytes the number of bytes a connection may send in total
+     * @throws IOException if the socket can not be bound
+     */
+    public OcrDecodeServer(InetSocketAddress address, ExecutorService connections, OcrResultCache cache,
+                           long maxConnectionBytes) throws IOException {
+        this.serverSocket = new ServerSocket();
+        this.serverSocket.bind(address, 0);
+        this.connections = connections;
+        this.cache = cache;
+        this.maxConnectionBytes = maxConnectionBytes;
+        this.acceptor = new Thread(this::accept, "OcrDecodeServer-" + getPort());
+        this.acceptor.start();
+    }
+
+    /**
+     * Start a server on the loopback interface, with the executor of newConnectionExecutor() and without cache.
+     *
+     * @param port the port to listen on, or 0 to pick a free one
+     * @return the running server
+     * @throws IOException if the socket can not be bound
+     */
+    public static OcrDecodeServer start(int port) throws IOException {
+        return new OcrDecodeServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), port),
+                newConnectionExecutor(), null);
+    }
+
+    /**
+     * An executor with a virtual thread per connection on Java 21 and later, and a cached thread pool of daemon
+     * threads before. The build targets Java 17, so the factory of the virtual threads is looked up at run time.
+     *
+     * @return an executor that runs every connection on a thread of its own
+     */
+    public static ExecutorService newConnectionExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return Executors.newCachedThreadPool(task -> {
+                Thread thread = new Thread(task, "OcrDecodeServer-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /**
+     * @return the port the server listens on
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of connections accepted so far
+     */
+    public long connectionCount() {
+        return connectionCount.sum();
+    }
+
+    /**
+     * @return the number of times accepting a connection failed
+     */
+    public long acceptErrorCount() {
+        return acceptErrorCount.sum();
+    }
+
+    /**
+     * @return the number of entries answered so far
+     */
+    public long entryCount() {
+        return entryCount.sum();
+    }
+
+    /**
+     * @return the number of batches sent so far
+     */
+    public long batchCount() {
+        return batchLatency.count();
+    }
+
+    /**
+     * @param percentile a value between 0 and 100, e.g. 99 for the p99 latency
+     * @return the upper bound of the batch latency at that percentile, in nanoseconds, within a factor of two
+     */
+    public long batchLatencyNanos(double percentile) {
+        return batchLatency.percentileNanos(percentile);
+    }
+
+    /**
+     * Stop to accept connections and stop serving the open ones. The sockets of the open connections are closed,
+     * because a task that is blocked reading from its socket does not react to an interrupt.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        serverSocket.close();
+        acceptor.interrupt();
+        for (Socket socket : openSockets) {
+            closeQuietly(socket);
+        }
+        connections.shutdownNow();
+        try {
+            acceptor.join(TimeUnit.SECONDS.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void accept() {
+        long backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+        while (!closed) {
+            Socket socket;
+            try {
+                socket = serverSocket.accept();
+            } catch (IOException e) {
+                if (closed) {
+                    return;
+                }
+                acceptErrorCount.increment();
+                System.err.println("OcrDecodeServer: accept failed, retrying in " + backoff + " ms: " + e);
+                try {
+                    Thread.sleep(backoff);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+                backoff = Math.min(2 * backoff, MAX_ACCEPT_BACKOFF_MILLIS);
+                continue;
+            }
+            backoff = MIN_ACCEPT_BACKOFF_MILLIS;
+            openSockets.add(socket);
+            connectionCount.increment();
+            if (closed) {
+                // close() may have gone through the open sockets before this one was added
+                openSockets.remove(socket);
+                closeQuietly(socket);
+                return;
+            }
+            try {
+                connections.execute(() -> serve(socket));
+            } catch (RejectedExecutionException e) {
+                openSockets.remove(socket);
+                closeQuietly(socket);
+            }
+        }
+    }
+
+    private void serve(Socket socket) {
+        try {
+            serveConnection(socket);
+        } finally {
+            openSockets.remove(socket);
+        }
+    }
+
+    private void serveConnection(Socket socket) {
+        try (socket;
+             OcrScanReader reader = new OcrScanReader(socket.getInputStream());
+             OutputStream out = new BufferedOutputStream(socket.getOutputStream(), OUTPUT_BUFFER_SIZE)) {
+            socket.setTcpNoDelay(true);
+            reader.setCache(cache);
+            try {
+                serve(reader, out);
+            } catch (IllegalArgumentException e) {
+                out.write(("ERROR " + e.getMessage() + "\n").getBytes(StandardCharsets.US_ASCII));
+                out.flush();
+                linger(socket);
+            }
+        } catch (IOException | UncheckedIOException e) {
+            // the client went away, or the server is closed, so there is nobody to answer anymore
+        }
+    }
+
+    private void serve(OcrScanReader reader, OutputStream out) throws IOException {
+        int pending = 0;
+        long batchStart = 0;
+        while (reader.hasNext()) {
+            if (pending == 0) {
+                batchStart = System.nanoTime();
+            }
+            String result = reader.next();
+            if (reader.endOffset() > maxConnectionBytes) {
+                out.flush();
+                throw new IllegalArgumentException("connection sent more than " + maxConnectionBytes + " bytes");
+            }
+            for (int i = 0; i < result.length(); i += 1) {
+                out.write(result.charAt(i));
+            }
+            out.write('\n');
+            pending += 1;
+            if (pending == MAX_BATCH || !reader.hasBufferedEntry()) {
+                out.flush();
+                batchLatency.record(System.nanoTime() - batchStart);
+                entryCount.add(pending);
+                pending = 0;
+            }
+        }
+        if (pending > 0) {
+            out.flush();
+            batchLatency.record(System.nanoTime() - batchStart);
+            entryCount.add(pending);
+        }
+    }
+
+    /**
+     * Closing a socket with input that was not read resets the connection, and the client may lose the error line
+     * sent last. So the output is shut down, and the input is read and dropped until the client ends it, for a
+     * short while and up to MAX_LINGER_BYTES.
+     */
+    private static void linger(Socket socket) throws IOException {
+        socket.shutdownOutput();
+        socket.setSoTimeout(LINGER_MILLIS);
+        byte[] drain = new byte[8192];
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(LINGER_MILLIS);
+        int drained = 0;
+        int count = 0;
+        while (count >= 0 && drained < MAX_LINGER_BYTES && System.nanoTime() < deadline) {
+            count = socket.getInputStream().read(drain);
+            drained += Math.max(count, 0);
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nothing to do
+        }
+    }
+
+    /**
+     * Usage: OcrDecodeServer [port [cache-size]]
+     * <p>
+     * Runs until the process is stopped. The default port is 4711. The metrics of the pipeline are registered
+     * with JMX under the name "OcrDecodeServer".
+     *
+     * @param args the command line arguments
+     * @throws IOException if the socket can not be bound
+     * @throws JMException if the metrics can not be registered
+     */
+    public static void main(String[] args) throws IOException, JMException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 4711;
+        OcrResultCache cache = args.length > 1 ? new OcrResultCache(Integer.parseInt(args[1])) : null;
+        OcrDecodeServer server = new OcrDecodeServer(
+                new InetSocketAddress(InetAddress.getLoopbackAddress(), port), newConnectionExecutor(), cache);
+        OcrMetrics metrics = new OcrMetrics();
+        metrics.register("OcrDecodeServer");
+        OcrDecode.setMetrics(metrics);
+        System.err.println("OcrDecodeServer listening on port " + server.getPort());
+    }
+}
@@ -0,0 +1,320 @@
+package de.pruefbit.kata;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and latency histograms for the decode pipeline.
+ * <p>
+ * Metrics are off by default. To switch them on, install an instance with OcrDecode.setMetrics(). As long as no
+ * instance is installed, the pipeline only pays for reading one static field per stage.
+ * <p>
+ * The outcome counters are counted where the outcome is decided: an entry is "valid" if the checksum stage of the
+ * pipeline finds it good, "err" or "ill" if markErrOrIll() or tryRecoverErrOrIll() mark it like that, and "amb" or
+ * "recovered" after tryRecoverErrOrIll(). The recovery attempts tell which branch tryRecoverErrOrIll() took: the one
+ * for a bad checksum, or the one for a single unreadable digit. A call of isAccountNumberValid() outside of the
+ * pipeline records nothing.
+ * <p>
+ * There is one latency histogram for each stage: decoding the glyphs, validating the checksum, and recovering.
+ * All counters are lock-free, so one instance can be shared by all decoding threads. The values can be read with
+ * snapshot(), or through JMX after register().
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class OcrMetrics implements OcrMetricsMXBean {
+
+    /**
+     * The stages of the decode pipeline, each with its own latency histogram.
+     */
+    public enum Stage {
+        DECODE, CHECKSUM, RECOVERY
+    }
+
+    private final LongAdder decoded = new LongAdder();
+    private final LongAdder valid = new LongAdder();
+    private final LongAdder err = new LongAdder();
+    private final LongAdder ill = new LongAdder();
+    private final LongAdder amb = new LongAdder();
+    private final LongAdder recovered = new LongAdder();
+    private final LongAdder recoverErrorAttempts = new LongAdder();
+    private final LongAdder recoverUnreadableAttempts = new LongAdder();
+    private final LatencyHistogram[] latencies = new LatencyHistogram[Stage.values().length];
+
+    public OcrMetrics() {
+        for (int n = 0; n < latencies.length; n += 1) {
+            latencies[n] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Make the metrics visible through the platform MBean server.
+     *
+     * @param name the value of the "name" key of the object name, to tell several instances apart
+     * @return the object name the metrics are registered with
+     * @throws JMException if the registration fails, e.g. because the name is already taken
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("de.pruefbit.kata:type=OcrMetrics,name=" + ObjectName.quote(name));
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        server.registerMBean(this, objectName);
+        return objectName;
+    }
+
+    void recordDecode(long nanos) {
+        decoded.increment();
+        latencies[Stage.DECODE.ordinal()].record(nanos);
+    }
+
+    void recordChecksum(long nanos, boolean isValid) {
+        if (isValid) {
+            valid.increment();
+        }
+        latencies[Stage.CHECKSUM.ordinal()].record(nanos);
+    }
+
+    void recordRecovery(long nanos) {
+        latencies[Stage.RECOVERY.ordinal()].record(nanos);
+    }
+
+    void countRecoverError() {
+        recoverErrorAttempts.increment();
+    }
+
+    void countRecoverUnreadable() {
+        recoverUnreadableAttempts.increment();
+    }
+
+    void countErr() {
+        err.increment();
+    }
+
+    void countIll() {
+        ill.increment();
+    }
+
+    void countAmb() {
+        amb.increment();
+    }
+
+    void countRecovered() {
+        recovered.increment();
+    }
+
+    @Override
+    public long getDecoded() {
+        return decoded.sum();
+    }
+
+    @Override
+    public long getValid() {
+        return valid.sum();
+    }
+
+    @Override
+    public long getErr() {
+        return err.sum();
+    }
+
+    @Override
+    public long getIll() {
+        return ill.sum();
+    }
+
+    @Override
+    public long getAmb() {
+        return amb.sum();
+    }
+
+    @Override
+    public long getRecovered() {
+        return recovered.sum();
+    }
+
+    @Override
+    public long getRecoverErrorAttempts() {
+        return recoverErrorAttempts.sum();
+    }
+
+    @Override
+    public long getRecoverUnreadableAttempts() {
+        return recoverUnreadableAttempts.sum();
+    }
+
+    @Override
+    public long getDecodeP50Nanos() {
+        return percentileNanos(Stage.DECODE, 50);
+    }
+
+    @Override
+    public long getDecodeP99Nanos() {
+        return percentileNanos(Stage.DECODE, 99);
+    }
+
+    @Override
+    public long getChecksumP50Nanos() {
+        return percentileNanos(Stage.CHECKSUM, 50);
+    }
+
+    @Override
+    public long getChecksumP99Nanos() {
+        return percentileNanos(Stage.CHECKSUM, 99);
+    }
+
+    @Override
+    public long getRecoveryP50Nanos() {
+        return percentileNanos(Stage.RECOVERY, 50);
+    }
+
+    @Override
+    public long getRecoveryP99Nanos() {
+        return percentileNanos(Stage.RECOVERY, 99);
+    }
+
+    /**
+     * @param stage      the stage of the pipeline
+     * @param percentile a value between 0 and 100
+     * @return the latency of the stage at the percentile, accurate to a factor of two
+     */
+    public long percentileNanos(Stage stage, double percentile) {
+        return latencies[stage.ordinal()].percentileNanos(percentile);
+    }
+
+    /**
+     * @param stage the stage of the pipeline
+     * @return how often the stage ran
+     */
+    public long count(Stage stage) {
+        return latencies[stage.ordinal()].count();
+    }
+
+    /**
+     * @param stage the stage of the pipeline
+     * @return the time spent in the stage, summed up over all runs
+     */
+    public long totalNanos(Stage stage) {
+        return latencies[stage.ordinal()].totalNanos();
+    }
+
+    @Override
+    public void reset() {
+        decoded.reset();
+        valid.reset();
+        err.reset();
+        ill.reset();
+        amb.reset();
+        recovered.reset();
+        recoverErrorAttempts.reset();
+        recoverUnreadableAttempts.reset();
+        for (LatencyHistogram latency : latencies) {
+            latency.reset();
+        }
+    }
+
+    /**
+     * @return the current values. While other threads keep recording, the values need not be consistent with each
+     * other.
+     */
+    public Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * The values of the metrics at one point in time.
+     */
+    public static final class Snapshot {
+        private final long decoded;
+        private final long valid;
+        private final long err;
+        private final long ill;
+        private final long amb;
+        private final long recovered;
+        private final long recoverErrorAttempts;
+        private final long recoverUnreadableAttempts;
+        private final long[] p50Nanos = new long[Stage.values().length];
+        private final long[] p99Nanos = new long[Stage.values().length];
+        private final long[] totalNanos = new long[Stage.values().length];
+
+        private Snapshot(OcrMetrics metrics) {
+            decoded = metrics.getDecoded();
+            valid = metrics.getValid();
+            err = metrics.getErr();
+            ill = metrics.getIll();
+            amb = metrics.getAmb();
+            recovered = metrics.getRecovered();
+            recoverErrorAttempts = metrics.getRecoverErrorAttempts();
+            recoverUnreadableAttempts = metrics.getRecoverUnreadableAttempts();
+            for (Stage stage : Stage.values()) {
+                p50Nanos[stage.ordinal()] = metrics.percentileNanos(stage, 50);
+                p99Nanos[stage.ordinal()] = metrics.percentileNanos(stage, 99);
+                totalNanos[stage.ordinal()] = metrics.totalNanos(stage);
+            }
+        }
+
+        public long decoded() {
+            return decoded;
+        }
+
+        public long valid() {
+            return valid;
+        }
+
+        public long err() {
+            return err;
+        }
+
+        public long ill() {
+            return ill;
+        }
+
+        public long amb() {
+            return amb;
+        }
+
+        public long recovered() {
+            return recovered;
+        }
+
+        public long recoverErrorAttempts() {
+            return recoverErrorAttempts;
+        }
+
+        public long recoverUnreadableAttempts() {
+            return recoverUnreadableAttempts;
+        }
+
+        public long p50Nanos(Stage stage) {
+            return p50Nanos[stage.ordinal()];
+        }
+
+        public long p99Nanos(Stage stage) {
+            return p99Nanos[stage.ordinal()];
+        }
+
+        public long totalNanos(Stage stage) {
+            return totalNanos[stage.ordinal()];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder text = new StringBuilder()
+                    .append("decoded=").append(decoded)
+                    .append(" valid=").append(valid)
+                    .append(" err=").append(err)
+                    .append(" ill=").append(ill)
+                    .append(" amb=").append(amb)
+                    .append(" recovered=").append(recovered)
+                    .append(" recoverError=").append(recoverErrorAttempts)
+                    .append(" recoverUnreadable=").append(recoverUnreadableAttempts);
+            for (Stage stage : Stage.values()) {
+                text.append(' ').append(stage.name().toLowerCase())
+                        .append("[p50=").append(p50Nanos(stage))
+                        .append("ns p99=").append(p99Nanos(stage))
+                        .append("ns total=").append(totalNanos(stage)).append("ns]");
+            }
+            return text.toString();
+        }
+    }
+}
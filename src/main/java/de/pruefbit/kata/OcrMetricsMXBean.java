@@ -0,0 +1,39 @@
+package de.pruefbit.kata;
+
+/**
+ * The JMX view of the OcrMetrics. All latencies are in nanoseconds.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public interface OcrMetricsMXBean {
+
+    long getDecoded();
+
+    long getValid();
+
+    long getErr();
+
+    long getIll();
+
+    long getAmb();
+
+    long getRecovered();
+
+    long getRecoverErrorAttempts();
+
+    long getRecoverUnreadableAttempts();
+
+    long getDecodeP50Nanos();
+
+    long getDecodeP99Nanos();
+
+    long getChecksumP50Nanos();
+
+    long getChecksumP99Nanos();
+
+    long getRecoveryP50Nanos();
+
+    long getRecoveryP99Nanos();
+
+    void reset();
+}
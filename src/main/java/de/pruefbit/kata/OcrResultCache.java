@@ -0,0 +1,206 @@
+package de.pruefbit.kata;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded cache of results of the whole pipeline: decode, validate and, if necessary, recover.
+ * <p>
+ * The result of an entry only depends on its cells, and every cell fits into a 10 bit glyph. So the key of an
+ * entry are its glyphs, packed into a few longs: a 9 digit entry needs two of them. Repeated entries then skip
+ * all decoding and recovery work.
+ * <p>
+ * The cache is split into segments by the high bits of the hash of the key, because the maps of the segments pick
+ * their buckets by the low bits. Each segment evicts its least recently used entry when
+ * it is full, and is locked on its own, so threads working on different entries rarely wait for each other. The
+ * maximum size is shared out among the segments, so the cache never holds more results than that, and it must be
+ * at least MINIMUM_SIZE, one result per segment.
+ * Results taken from the cache do not show up in the OcrMetrics of the pipeline, but in the hit count here.
+ * <p>
+ * Usage example:
+ * <pre>
+ *     OcrResultCache cache = new OcrResultCache(100_000);
+ *     String result = cache.evaluate(scanLine);
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrResultCache {
+
+    private static final int SEGMENT_BITS = 4;
+    private static final int SEGMENTS = 1 << SEGMENT_BITS;
+
+    /**
+     * The smallest maximum size of a cache.
+     */
+    public static final int MINIMUM_SIZE = SEGMENTS;
+    private static final int GLYPH_BITS = 10;
+    private static final int GLYPHS_PER_WORD = Long.SIZE / GLYPH_BITS;
+
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final ScannerFont font;
+
+    /**
+     * @param maximumSize the maximum number of results to keep, at least MINIMUM_SIZE
+     * @throws IllegalArgumentException if maximumSize is less than MINIMUM_SIZE
+     */
+    public OcrResultCache(int maximumSize) {
+        this(maximumSize, ScannerFont.STANDARD);
+    }
+
+    /**
+     * The results depend on the font, so a cache only decodes entries of one font. For entries of several
+     * fonts, use a font that combines them.
+     *
+     * @param maximumSize the maximum number of results to keep, at least MINIMUM_SIZE
+     * @param font        the font to recognize the glyphs with
+     * @throws IllegalArgumentException if maximumSize is less than MINIMUM_SIZE
+     */
+    public OcrResultCache(int maximumSize, ScannerFont font) {
+        this.font = font;
+        if (maximumSize < MINIMUM_SIZE) {
+            throw new IllegalArgumentException("the cache must hold at least " + MINIMUM_SIZE + " results");
+        }
+        for (int n = 0; n < SEGMENTS; n += 1) {
+            segments[n] = new Segment(maximumSize / SEGMENTS + (n < maximumSize % SEGMENTS ? 1 : 0));
+        }
+    }
+
+    /**
+     * Look up the result of an entry, or run the pipeline and keep its result.
+     *
+     * @param scanLine the three scanned lines of the entry
+     * @return the result, the same as a line of the User Story 4 output files
+     */
+    public String evaluate(String[] scanLine) {
+        int count = (scanLine[0].length() + 2) / 3;
+        int[] glyphs = new int[count];
+        for (int n = 0; n < count; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(scanLine, n * 3);
+        }
+        return evaluate(glyphs, count);
+    }
+
+    /**
+     * The same as evaluate() above, for an entry that was already packed into glyphs.
+     */
+    String evaluate(int[] glyphs, int count) {
+        Key key = new Key(glyphs, count);
+        Segment segment = segments[key.hash >>> (Integer.SIZE - SEGMENT_BITS)];
+        String result = segment.get(key);
+        if (result != null) {
+            hits.increment();
+            return result;
+        }
+        misses.increment();
+        result = OcrDecode.evaluate(glyphs, count, font);
+        segment.put(key, result);
+        return result;
+    }
+
+    /**
+     * @return the font the glyphs are recognized with
+     */
+    ScannerFont font() {
+        return font;
+    }
+
+    /**
+     * @return how often a result was taken from the cache
+     */
+    public long hitCount() {
+        return hits.sum();
+    }
+
+    /**
+     * @return how often the pipeline had to run
+     */
+    public long missCount() {
+        return misses.sum();
+    }
+
+    /**
+     * @return the number of results currently kept
+     */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Forget all results. The hit and miss counts are kept.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            segment.clear();
+        }
+    }
+
+    /**
+     * The glyphs of an entry, packed six to a long.
+     */
+    private static final class Key {
+        private final long[] words;
+        private final int hash;
+
+        Key(int[] glyphs, int count) {
+            words = new long[(count + GLYPHS_PER_WORD - 1) / GLYPHS_PER_WORD + 1];
+            words[0] = count;
+            for (int n = 0; n < count; n += 1) {
+                words[1 + n / GLYPHS_PER_WORD] |= (long) glyphs[n] << (n % GLYPHS_PER_WORD * GLYPH_BITS);
+            }
+            // the multiplication spreads all bits of the glyphs into the high bits, which pick the segment
+            int h = Arrays.hashCode(words) * 0x9e3779b9;
+            hash = h ^ (h >>> 16);
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof Key && Arrays.equals(words, ((Key) other).words);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+
+    /**
+     * One least recently used map, locked on its own.
+     */
+    private static final class Segment {
+        private final Map<Key, String> results;
+
+        Segment(int maximumSize) {
+            results = new LinkedHashMap<Key, String>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Key, String> eldest) {
+                    return size() > maximumSize;
+                }
+            };
+        }
+
+        synchronized String get(Key key) {
+            return results.get(key);
+        }
+
+        synchronized void put(Key key, String result) {
+            results.put(key, result);
+        }
+
+        synchronized int size() {
+            return results.size();
+        }
+
+        synchronized void clear() {
+            results.clear();
+        }
+    }
+}
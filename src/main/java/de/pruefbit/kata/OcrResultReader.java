@@ -0,0 +1,220 @@
+package de.pruefbit.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.LongStream;
+
+/**
+ * Reads a result file written by OcrResultWriter, with random access to every entry.
+ * <p>
+ * The records are memory-mapped, in segments of up to 1 GB, so reading the result of an entry is one read from
+ * the mapped file. The sparse index is read into memory on open. It gives the source offset of every block, and
+ * lets entriesWithStatus() skip all blocks that do not contain the status looked for.
+ * <p>
+ * open() only accepts complete files. For a file whose writer did not get to close it, e.g. after a crash,
+ * recover() reads the records that reached the disk, and builds the index from them.
+ * <p>
+ * One instance can be used by many threads.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrResultReader implements Closeable {
+
+    private static final int RECORDS_PER_SEGMENT = 1 << 27;
+
+    private final FileChannel channel;
+    private final long count;
+    private final long[] index;
+    private final LongBuffer[] segments;
+
+    private OcrResultReader(FileChannel channel, boolean recover) throws IOException {
+        this.channel = channel;
+        long size = channel.size();
+        if (size < OcrResultWriter.HEADER_SIZE) {
+            throw new IOException("not a result file: too short");
+        }
+        ByteBuffer header = read(0, OcrResultWriter.HEADER_SIZE);
+        if (header.getInt() != OcrResultWriter.MAGIC || header.getInt() != OcrResultWriter.VERSION) {
+            throw new IOException("not a result file of version " + OcrResultWriter.VERSION);
+        }
+        long firstSourceOffset = header.getLong();
+        long committedCount = header.getLong();
+        if (recover) {
+            long written = (size - OcrResultWriter.HEADER_SIZE) / OcrResultWriter.RECORD_SIZE;
+            // after the number of records is committed, the index follows them, which must not be read as records
+            count = committedCount == OcrResultWriter.OPEN ? written : Math.min(committedCount, written);
+            segments = map(channel, count);
+            index = rebuildIndex(firstSourceOffset);
+            return;
+        }
+        if (size < OcrResultWriter.HEADER_SIZE + OcrResultWriter.TRAILER_SIZE) {
+            throw new IOException("result file is incomplete or damaged");
+        }
+        ByteBuffer trailer = read(size - OcrResultWriter.TRAILER_SIZE, OcrResultWriter.TRAILER_SIZE);
+        count = trailer.getLong();
+        long indexPosition = trailer.getLong();
+        int blocks = (int) ((count + OcrResultWriter.BLOCK_SIZE - 1) / OcrResultWriter.BLOCK_SIZE);
+        if (count != committedCount || count < 0
+                || indexPosition != OcrResultWriter.HEADER_SIZE + count * OcrResultWriter.RECORD_SIZE
+                || indexPosition + (long) blocks * OcrResultWriter.INDEX_ENTRY_SIZE
+                + OcrResultWriter.TRAILER_SIZE != size) {
+            throw new IOException("result file is incomplete or damaged");
+        }
+        index = new long[2 * blocks];
+        read(indexPosition, blocks * OcrResultWriter.INDEX_ENTRY_SIZE).asLongBuffer().get(index);
+        segments = map(channel, count);
+    }
+
+    private static LongBuffer[] map(FileChannel channel, long count) throws IOException {
+        LongBuffer[] segments = new LongBuffer[(int) ((count + RECORDS_PER_SEGMENT - 1) / RECORDS_PER_SEGMENT)];
+        for (int n = 0; n < segments.length; n += 1) {
+            long first = (long) n * RECORDS_PER_SEGMENT;
+            long records = Math.min(RECORDS_PER_SEGMENT, count - first);
+            segments[n] = channel.map(FileChannel.MapMode.READ_ONLY,
+                    OcrResultWriter.HEADER_SIZE + first * OcrResultWriter.RECORD_SIZE,
+                    records * OcrResultWriter.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+        return segments;
+    }
+
+    private long[] rebuildIndex(long firstSourceOffset) {
+        int blocks = (int) ((count + OcrResultWriter.BLOCK_SIZE - 1) / OcrResultWriter.BLOCK_SIZE);
+        long[] index = new long[2 * blocks];
+        long sourceOffset = firstSourceOffset;
+        for (long entry = 0; entry < count; entry += 1) {
+            long record = record(entry);
+            sourceOffset += record >>> OcrResultWriter.DISTANCE_SHIFT;
+            int block = (int) (entry / OcrResultWriter.BLOCK_SIZE);
+            if (entry % OcrResultWriter.BLOCK_SIZE == 0) {
+                index[2 * block] = sourceOffset;
+            }
+            long packedResult = record & ((1L << OcrResultWriter.DISTANCE_SHIFT) - 1);
+            index[2 * block + 1] |= 1L << DecodeResult.statusOf(packedResult).ordinal();
+        }
+        return index;
+    }
+
+    /**
+     * @param path the result file to read
+     * @return a reader for the result file
+     * @throws IOException if the file can not be opened, or is not a complete result file
+     */
+    public static OcrResultReader open(Path path) throws IOException {
+        return open(path, false);
+    }
+
+    /**
+     * Read a result file that may not have been closed by its writer, e.g. because the process died. All records
+     * that reached the disk can be read, and the index is built from them. A complete file reads the same as with
+     * open(), but takes longer to open.
+     *
+     * @param path the result file to read
+     * @return a reader for the records of the result file
+     * @throws IOException if the file can not be opened, or is not a result file
+     */
+    public static OcrResultReader recover(Path path) throws IOException {
+        return open(path, true);
+    }
+
+    private static OcrResultReader open(Path path, boolean recover) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            return new OcrResultReader(channel, recover);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("result file ends too early");
+            }
+        }
+        return buffer.flip();
+    }
+
+    /**
+     * @return the number of results in the file
+     */
+    public long count() {
+        return count;
+    }
+
+    private long record(long entry) {
+        if (entry < 0 || entry >= count) {
+            throw new IndexOutOfBoundsException("entry " + entry + " of " + count);
+        }
+        return segments[(int) (entry / RECORDS_PER_SEGMENT)].get((int) (entry % RECORDS_PER_SEGMENT));
+    }
+
+    /**
+     * @param entry the number of the entry, counted from 0
+     * @return the packed form of its result, see DecodeResult
+     */
+    public long packedResult(long entry) {
+        return record(entry) & ((1L << OcrResultWriter.DISTANCE_SHIFT) - 1);
+    }
+
+    /**
+     * @param entry the number of the entry, counted from 0
+     * @return its result, without candidates
+     */
+    public DecodeResult result(long entry) {
+        return DecodeResult.fromPacked(packedResult(entry));
+    }
+
+    /**
+     * @param entry the number of the entry, counted from 0
+     * @return the byte offset of the entry in the scan file
+     */
+    public long sourceOffset(long entry) {
+        record(entry);
+        long first = entry - entry % OcrResultWriter.BLOCK_SIZE;
+        long offset = index[2 * (int) (first / OcrResultWriter.BLOCK_SIZE)];
+        for (long n = first + 1; n <= entry; n += 1) {
+            offset += record(n) >>> OcrResultWriter.DISTANCE_SHIFT;
+        }
+        return offset;
+    }
+
+    /**
+     * @param status the status to look for
+     * @return the numbers of all entries with that status, in ascending order
+     */
+    public LongStream entriesWithStatus(DecodeResult.Status status) {
+        return entriesWithStatus(status, 0, count);
+    }
+
+    /**
+     * @param status the status to look for
+     * @param from   the first entry to look at
+     * @param to     the entry after the last one to look at
+     * @return the numbers of the entries in the range with that status, in ascending order
+     */
+    public LongStream entriesWithStatus(DecodeResult.Status status, long from, long to) {
+        long statusBit = 1L << status.ordinal();
+        long first = Math.max(from, 0);
+        long last = Math.min(to, count);
+        return LongStream.range(first / OcrResultWriter.BLOCK_SIZE,
+                        (last + OcrResultWriter.BLOCK_SIZE - 1) / OcrResultWriter.BLOCK_SIZE)
+                .filter(block -> (index[2 * (int) block + 1] & statusBit) != 0)
+                .flatMap(block -> LongStream.range(
+                        Math.max(first, block * OcrResultWriter.BLOCK_SIZE),
+                        Math.min(last, (block + 1) * OcrResultWriter.BLOCK_SIZE)))
+                .filter(entry -> DecodeResult.statusOf(packedResult(entry)) == status);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,185 @@
+package de.pruefbit.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes decode results to a compact binary file, which OcrResultReader can read with random access.
+ * <p>
+ * Every result takes one record of 8 bytes: the low 46 bits hold the packed form of the DecodeResult, the high 18
+ * bits hold the distance of the entry in the scan file from the entry before it, 0 for the first entry. A text line
+ * of the User Story 4 output files takes 10 to 14 bytes, and must be parsed again.
+ * <p>
+ * For every block of BLOCK_SIZE records, a sparse index holds the byte offset of the first entry of the block in
+ * the scan file, and a mask of the statuses that occur in the block. So a reader can find the source offset of any
+ * entry with at most BLOCK_SIZE additions, and skip whole blocks when it looks for a status.
+ * <p>
+ * The file is appended to: the header, then the records, then the index and a trailer with the number of records
+ * and the position of the index, written on close(). The layout, all numbers little-endian:
+ * <pre>
+ *     header   int MAGIC, int VERSION, long source offset of the first entry, long number of records or OPEN
+ *     records  one long per result
+ *     index    per block: long source offset of the first entry, long status mask
+ *     trailer  long number of records, long position of the index
+ * </pre>
+ * On close(), the records are forced to the disk and their number is written into the header before the index is
+ * written, and then the whole file is forced. The records alone hold everything the index is made of, so if the
+ * process dies before close() is done, OcrResultReader.recover() can still read every record that reached the
+ * disk, and builds the index itself.
+ * <p>
+ * Only results of up to DecodeResult.MAX_PACKED_LENGTH digits can be written, and the entries must come in the
+ * order of the scan file, each at most MAX_DISTANCE bytes after the one before it.
+ * <p>
+ * Usage example:
+ * <pre>
+ *     try (OcrScanReader reader = OcrScanReader.open(scanFile);
+ *          OcrResultWriter writer = OcrResultWriter.create(resultFile)) {
+ *         while (reader.hasNext()) {
+ *             writer.write(reader.nextResult(), reader.entryOffset());
+ *         }
+ *     }
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrResultWriter implements Closeable {
+
+    static final int MAGIC = 0x5252434f;
+    static final int VERSION = 2;
+    static final int HEADER_SIZE = 24;
+    static final int FIRST_OFFSET_POSITION = 8;
+    static final int COUNT_POSITION = 16;
+    static final long OPEN = -1;
+    static final int RECORD_SIZE = Long.BYTES;
+    static final int INDEX_ENTRY_SIZE = 2 * Long.BYTES;
+    static final int TRAILER_SIZE = 2 * Long.BYTES;
+    static final int BLOCK_SIZE = 256;
+    static final int DISTANCE_SHIFT = DecodeResult.PACKED_BITS;
+    static final long MAX_DISTANCE = (1L << (Long.SIZE - DISTANCE_SHIFT)) - 1;
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final FileChannel channel;
+    private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private long[] index = new long[2 * 64];
+    private long count = 0;
+    private long lastSourceOffset = -1;
+    private boolean closed = false;
+
+    private OcrResultWriter(FileChannel channel) throws IOException {
+        this.channel = channel;
+        buffer.putInt(MAGIC).putInt(VERSION).putLong(0).putLong(OPEN);
+    }
+
+    /**
+     * @param path the result file to write. An existing file is replaced.
+     * @return a writer for the result file
+     * @throws IOException if the file can not be created
+     */
+    public static OcrResultWriter create(Path path) throws IOException {
+        return new OcrResultWriter(FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE));
+    }
+
+    /**
+     * @param result       the result of the next entry
+     * @param sourceOffset the byte offset of the entry in the scan file
+     * @throws IOException if the file can not be written
+     */
+    public void write(DecodeResult result, long sourceOffset) throws IOException {
+        write(result.toPacked(), sourceOffset);
+    }
+
+    /**
+     * @param packedResult the packed form of the result of the next entry
+     * @param sourceOffset the byte offset of the entry in the scan file
+     * @throws IOException if the file can not be written
+     */
+    public void write(long packedResult, long sourceOffset) throws IOException {
+        if (packedResult >>> DecodeResult.PACKED_BITS != 0) {
+            throw new IllegalArgumentException("not the packed form of a result: " + packedResult);
+        }
+        long distance = count == 0 ? 0 : sourceOffset - lastSourceOffset;
+        if (sourceOffset < lastSourceOffset || distance > MAX_DISTANCE) {
+            throw new IllegalArgumentException("entry at source offset " + sourceOffset
+                    + " does not follow the entry at " + lastSourceOffset + " closely enough");
+        }
+        if (count == 0) {
+            // nothing was flushed before the first record, so the header is still in the buffer
+            buffer.putLong(FIRST_OFFSET_POSITION, sourceOffset);
+        }
+        int block = (int) (count / BLOCK_SIZE);
+        if (count % BLOCK_SIZE == 0) {
+            if (2 * block + 1 >= index.length) {
+                long[] larger = new long[index.length * 2];
+                System.arraycopy(index, 0, larger, 0, index.length);
+                index = larger;
+            }
+            index[2 * block] = sourceOffset;
+        }
+        index[2 * block + 1] |= 1L << DecodeResult.statusOf(packedResult).ordinal();
+        if (buffer.remaining() < RECORD_SIZE) {
+            flush();
+        }
+        buffer.putLong(distance << DISTANCE_SHIFT | packedResult);
+        lastSourceOffset = sourceOffset;
+        count += 1;
+    }
+
+    /**
+     * @return the number of results written so far
+     */
+    public long count() {
+        return count;
+    }
+
+    /**
+     * Force the records to the disk and commit their number to the header, then write the index and the trailer,
+     * force them too, and close the file.
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            flush();
+            ByteBuffer header = ByteBuffer.allocate(Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+            header.putLong(count).flip();
+            while (header.hasRemaining()) {
+                channel.write(header, COUNT_POSITION + header.position());
+            }
+            channel.force(false);
+            long indexPosition = HEADER_SIZE + count * RECORD_SIZE;
+            int blocks = (int) ((count + BLOCK_SIZE - 1) / BLOCK_SIZE);
+            for (int n = 0; n < 2 * blocks; n += 1) {
+                if (buffer.remaining() < Long.BYTES) {
+                    flush();
+                }
+                buffer.putLong(index[n]);
+            }
+            if (buffer.remaining() < TRAILER_SIZE) {
+                flush();
+            }
+            buffer.putLong(count).putLong(indexPosition);
+            flush();
+            channel.force(false);
+        } finally {
+            channel.close();
+        }
+    }
+
+    private void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,556 @@
+package de.pruefbit.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Reads a whole scan file entry by entry and decodes each entry, without building strings for the scanned lines.
+ * <p>
+ * A scan file consists of entries of four lines each: three lines with the scanned symbols, followed by one
+ * separator line. Lines may end with "\n" or "\r\n". The last entry of the file may lack its separator line.
+ * Trailing lines that do not make up three scanned lines are ignored.
+ * <p>
+ * The raw bytes are kept in one reusable buffer, and the cells are packed into glyphs right from there. For every
+ * entry, the reader runs the whole pipeline: decode, validate the checksum and, if necessary, try to recover.
+ * So each result looks like a line of the User Story 4 output files, e.g. "490867715" or "888888888 AMB".
+ * <p>
+ * By default, an entry whose lines are too short to be decoded causes a runtime error. When malformed entries are
+ * reported instead, the format is checked strictly, and a malformed entry gives a MALFORMED result with its byte
+ * offset and the reason, and the reader goes on with the next entry. The check is fused into the search for the
+ * line breaks: while the bytes of a line are scanned anyway, their classes from a lookup table are or-ed
+ * together, so a clean entry costs no extra pass over its bytes.
+ * <p>
+ * A line may be at most MAX_LINE_LENGTH bytes long, so a corrupt input without line breaks can not make the buffer
+ * grow without bound. An entry with a longer line is malformed, and the reader skips ahead to the line break that
+ * ends the long line, without keeping its bytes.
+ * <p>
+ * Usage example:
+ * <pre>
+ *     try (OcrScanReader reader = OcrScanReader.open(path)) {
+ *         reader.results().forEach(System.out::println);
+ *     }
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrScanReader implements Iterator<String>, Closeable {
+
+    /**
+     * The longest line of an entry, in bytes and without its line terminator.
+     */
+    public static final int MAX_LINE_LENGTH = 1 << 16;
+
+    private static final int NO_LINE = -1;
+    private static final int LINES_PER_ENTRY = 4;
+    private static final int ROWS_PER_ENTRY = 3;
+    private static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+
+    private final ReadableByteChannel channel;
+    private byte[] buffer = new byte[DEFAULT_BUFFER_SIZE];
+    private ByteBuffer window = ByteBuffer.wrap(buffer);
+    private long bufferOffset = 0;
+    private int position = 0;
+    private int limit = 0;
+    private boolean endOfInput = false;
+
+    private final int[] lineStart = new int[LINES_PER_ENTRY];
+    private final int[] lineEnd = new int[LINES_PER_ENTRY];
+    private final int[] lineClasses = new int[LINES_PER_ENTRY];
+    private int scannedClasses;
+    private int linesFramed;
+    private int longLine = NO_LINE;
+    private int nextPosition;
+    private int[] glyphs = new int[9];
+    private int glyphCount;
+    private boolean framed = false;
+    private long framedOffset;
+    private long framedEnd;
+    private long entryOffset = -1;
+    private long endOffset;
+    private boolean completeEntriesOnly = false;
+    private boolean reportMalformed = false;
+    private String malformedReason;
+    private long malformedCount = 0;
+    private OcrResultCache cache;
+    private ScannerFont font = ScannerFont.STANDARD;
+    private AccountNumberIndex index;
+    private boolean repeated;
+
+    /**
+     * @param channel the channel to read the scan file from
+     */
+    public OcrScanReader(ReadableByteChannel channel) {
+        this(channel, 0);
+    }
+
+    /**
+     * Read a scan file from somewhere in the middle, e.g. to resume where an earlier reader stopped.
+     *
+     * @param channel     the channel to read the scan file from, positioned at startOffset
+     * @param startOffset the byte offset in the scan file the channel is positioned at, which must be the
+     *                    beginning of an entry
+     */
+    public OcrScanReader(ReadableByteChannel channel, long startOffset) {
+        this.channel = channel;
+        this.bufferOffset = startOffset;
+        this.endOffset = startOffset;
+    }
+
+    /**
+     * @param in the stream to read the scan file from
+     */
+    public OcrScanReader(InputStream in) {
+        this(Channels.newChannel(in));
+    }
+
+    /**
+     * @param path the scan file to read
+     * @return a reader for the scan file
+     * @throws IOException if the file can not be opened
+     */
+    public static OcrScanReader open(Path path) throws IOException {
+        return new OcrScanReader(FileChannel.open(path, StandardOpenOption.READ));
+    }
+
+    /**
+     * Take the results of repeated entries from a cache, instead of running the pipeline for them again.
+     *
+     * @param cache the cache to use from now on, or null to run the pipeline for every entry
+     * @throws IllegalArgumentException if the cache decodes with another font than the reader
+     */
+    public void setCache(OcrResultCache cache) {
+        checkFont(cache, font);
+        this.cache = cache;
+    }
+
+    /**
+     * Recognize the glyphs with another font than the standard one, e.g. one that combines the fonts of several
+     * scanner models. To change the font of a reader with a cache, remove the cache first.
+     *
+     * @param font the font to use from now on
+     * @throws IllegalArgumentException if the cache of the reader decodes with another font
+     */
+    public void setFont(ScannerFont font) {
+        checkFont(cache, font);
+        this.font = font;
+    }
+
+    static void checkFont(OcrResultCache cache, ScannerFont font) {
+        if (cache != null && cache.font() != font) {
+            throw new IllegalArgumentException("the cache decodes with another font");
+        }
+    }
+
+    /**
+     * Add the account number of every good entry to an index, to find account numbers that were seen before.
+     *
+     * @param index the index to use from now on, or null to not index the account numbers
+     * @see #isRepeated()
+     */
+    public void setIndex(AccountNumberIndex index) {
+        this.index = index;
+    }
+
+    /**
+     * Only read entries that are complete, including their separator line, and ignore whatever follows the last
+     * one. This is for scan files that are still growing, where the end of the file may be in the middle of an
+     * entry that is not written completely yet.
+     *
+     * @param completeEntriesOnly true to ignore an incomplete entry at the end of the input
+     */
+    public void setCompleteEntriesOnly(boolean completeEntriesOnly) {
+        this.completeEntriesOnly = completeEntriesOnly;
+    }
+
+    /**
+     * Report malformed entries as results, and go on with the next entry, instead of throwing an exception.
+     * <p>
+     * The format is then checked strictly: the three scanned lines must have the same length, which is a positive
+     * multiple of 3, and may only hold " ", "_" and "|". The separator line may only hold blanks. At the end of
+     * the input, one or two lines that are not blank make an incomplete entry. The result of a malformed entry
+     * is like "malformed scan entry at byte offset 112: line 2 has length 26 instead of 27".
+     *
+     * @param reportMalformed true to report malformed entries as results
+     */
+    public void setReportMalformed(boolean reportMalformed) {
+        this.reportMalformed = reportMalformed;
+    }
+
+    /**
+     * @return the number of MALFORMED results given so far
+     */
+    public long malformedCount() {
+        return malformedCount;
+    }
+
+    /**
+     * @return the results of all remaining entries, in file order. Closing the stream closes the reader.
+     */
+    public Stream<String> results() {
+        Spliterator<String> spliterator = Spliterators.spliteratorUnknownSize(
+                this, Spliterator.ORDERED | Spliterator.NONNULL);
+        return StreamSupport.stream(spliterator, false).onClose(() -> {
+            try {
+                close();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+    }
+
+    @Override
+    public boolean hasNext() {
+        try {
+            return advance();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    @Override
+    public String next() {
+        take();
+        if (malformedReason != null) {
+            return DecodeResult.malformedMessage(entryOffset, malformedReason);
+        }
+        String result = cache == null
+                ? OcrDecode.evaluate(glyphs, glyphCount, font) : cache.evaluate(glyphs, glyphCount);
+        if (index != null) {
+            repeated = addToIndex(AccountNumberIndex.accountNumberOf(result));
+        }
+        return result;
+    }
+
+    /**
+     * The same as next(), but gives the result as a DecodeResult instead of a string. The cache is not used.
+     *
+     * @return the result of the next entry
+     */
+    public DecodeResult nextResult() {
+        take();
+        if (malformedReason != null) {
+            return DecodeResult.malformed(entryOffset, malformedReason);
+        }
+        DecodeResult result = DecodeResult.evaluate(glyphs, glyphCount, font);
+        if (index != null) {
+            repeated = addToIndex(AccountNumberIndex.accountNumberOf(result));
+        }
+        return result;
+    }
+
+    /**
+     * Go past the next entry without running the pipeline for it, e.g. to find where an entry ends.
+     */
+    void skip() {
+        take();
+    }
+
+    private boolean addToIndex(long accountNumber) {
+        return accountNumber >= 0 && !index.add(accountNumber);
+    }
+
+    /**
+     * @return true if the entry whose result was returned last has an account number that was already in the
+     * index, from this file, an earlier file or another reader sharing the index
+     */
+    public boolean isRepeated() {
+        return repeated;
+    }
+
+    /**
+     * @return the byte offset in the scan file of the entry whose result was returned last, or -1 before the first
+     */
+    public long entryOffset() {
+        return entryOffset;
+    }
+
+    /**
+     * @return the byte offset in the scan file right after the entry whose result was returned last, which is where
+     * the next reader has to start to resume. Before the first result, this is the start offset.
+     */
+    public long endOffset() {
+        return endOffset;
+    }
+
+    /**
+     * Tell whether the next result can be had without reading from the channel, i.e. without blocking.
+     *
+     * @return true if a complete entry is already in the buffer
+     */
+    boolean hasBufferedEntry() {
+        return framed || frame();
+    }
+
+    private void take() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        framed = false;
+        repeated = false;
+        entryOffset = framedOffset;
+        endOffset = framedEnd;
+        if (malformedReason != null) {
+            malformedCount += 1;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Frame the next entry and pack its cells into glyphs, unless that was already done.
+     *
+     * @return true if there is a next entry
+     */
+    private boolean advance() throws IOException {
+        if (framed) {
+            return true;
+        }
+        while (!frame()) {
+            if (longLine != NO_LINE) {
+                return skipLongLine();
+            }
+            if (endOfInput) {
+                return false;
+            }
+            fill();
+        }
+        packEntry();
+        framedOffset = bufferOffset + lineStart[0];
+        framedEnd = bufferOffset + nextPosition;
+        position = nextPosition;
+        framed = true;
+        return true;
+    }
+
+    /**
+     * The entry at position has a line longer than MAX_LINE_LENGTH, which begins at nextPosition. Drop the bytes up
+     * to the line break that ends it, and make the entry a malformed one.
+     *
+     * @return true if there is a next entry, which is false if the input ends before the long line is complete
+     * and only complete entries are read
+     */
+    private boolean skipLongLine() throws IOException {
+        long start = bufferOffset + position;
+        String reason = "line " + (longLine + 1) + " is longer than " + MAX_LINE_LENGTH + " bytes";
+        longLine = NO_LINE;
+        if (!reportMalformed) {
+            throw new IllegalArgumentException(DecodeResult.malformedMessage(start, reason));
+        }
+        position = nextPosition;
+        int newline = indexOfNewline(position);
+        while (newline < 0) {
+            position = limit;
+            if (endOfInput) {
+                if (completeEntriesOnly) {
+                    return false;
+                }
+                break;
+            }
+            fill();
+            newline = indexOfNewline(position);
+        }
+        position = newline < 0 ? limit : newline + 1;
+        malformedReason = reason;
+        glyphCount = 0;
+        framedOffset = start;
+        framedEnd = bufferOffset + position;
+        framed = true;
+        return true;
+    }
+
+    /**
+     * Try to find the lines of the next entry in the buffer. If one of them is longer than MAX_LINE_LENGTH, its
+     * number is kept in longLine, and nextPosition is where it begins.
+     *
+     * @return true if a complete entry is in the buffer
+     */
+    private boolean frame() {
+        int cursor = position;
+        linesFramed = 0;
+        while (linesFramed < LINES_PER_ENTRY) {
+            int newline = indexOfNewline(cursor);
+            if (newline < 0) {
+                // one byte more for a carriage return, which is not part of the line
+                if (limit - cursor > MAX_LINE_LENGTH + 1) {
+                    return longLine(cursor);
+                }
+                if (!endOfInput || completeEntriesOnly || cursor == limit) {
+                    break;
+                }
+                newline = limit;
+            }
+            boolean carriageReturn = newline > cursor && buffer[newline - 1] == '\r';
+            if ((carriageReturn ? newline - 1 : newline) - cursor > MAX_LINE_LENGTH) {
+                return longLine(cursor);
+            }
+            lineStart[linesFramed] = cursor;
+            lineEnd[linesFramed] = carriageReturn ? newline - 1 : newline;
+            lineClasses[linesFramed] = carriageReturn
+                    ? scannedClasses & ~GlyphTable.CARRIAGE_RETURN : scannedClasses;
+            linesFramed += 1;
+            cursor = Math.min(newline + 1, limit);
+        }
+        nextPosition = cursor;
+        if (linesFramed == LINES_PER_ENTRY) {
+            return true;
+        }
+        if (!endOfInput || completeEntriesOnly) {
+            return false;
+        }
+        return linesFramed >= ROWS_PER_ENTRY || (reportMalformed && !blank(linesFramed));
+    }
+
+    private boolean longLine(int cursor) {
+        longLine = linesFramed;
+        nextPosition = cursor;
+        return false;
+    }
+
+    /**
+     * Find the next line feed, and or together the byte classes of the bytes before it into scannedClasses.
+     */
+    private int indexOfNewline(int from) {
+        int classes = 0;
+        for (int i = from; i < limit; i += 1) {
+            byte b = buffer[i];
+            if (b == '\n') {
+                scannedClasses = classes;
+                return i;
+            }
+            classes |= GlyphTable.byteClassOf(b);
+        }
+        scannedClasses = classes;
+        return -1;
+    }
+
+    private boolean blank(int lines) {
+        for (int line = 0; line < lines; line += 1) {
+            if ((lineClasses[line] & ~GlyphTable.BLANK) != 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void fill() throws IOException {
+        if (position > 0) {
+            System.arraycopy(buffer, position, buffer, 0, limit - position);
+            bufferOffset += position;
+            limit -= position;
+            position = 0;
+        }
+        if (limit == buffer.length) {
+            byte[] larger = new byte[buffer.length * 2];
+            System.arraycopy(buffer, 0, larger, 0, limit);
+            buffer = larger;
+            window = ByteBuffer.wrap(buffer);
+        }
+        window.limit(buffer.length).position(limit);
+        int count = channel.read(window);
+        if (count < 0) {
+            endOfInput = true;
+        } else {
+            limit += count;
+        }
+    }
+
+    private void packEntry() {
+        malformedReason = reportMalformed ? formatError() : lengthError();
+        if (malformedReason != null) {
+            if (!reportMalformed) {
+                throw new IllegalArgumentException(
+                        DecodeResult.malformedMessage(bufferOffset + lineStart[0], malformedReason));
+            }
+            glyphCount = 0;
+            return;
+        }
+        int count = (lineEnd[0] - lineStart[0]) / 3;
+        if (glyphs.length < count) {
+            glyphs = new int[count];
+        }
+        for (int n = 0; n < count; n += 1) {
+            glyphs[n] = GlyphTable.glyphOf(buffer, lineStart[0], lineStart[1], lineStart[2], n * 3);
+        }
+        glyphCount = count;
+    }
+
+    /**
+     * The loose check when malformed entries are not reported: the lines must only be long enough to be decoded.
+     *
+     * @return the reason why the framed entry can not be decoded, or null
+     */
+    private String lengthError() {
+        int width = lineEnd[0] - lineStart[0];
+        for (int row = 1; row < ROWS_PER_ENTRY; row += 1) {
+            if (lineEnd[row] - lineStart[row] < width) {
+                return "line " + (row + 1) + " is shorter than line 1";
+            }
+        }
+        if (width % 3 != 0) {
+            return "line length " + width + " is not divisible by 3";
+        }
+        return null;
+    }
+
+    /**
+     * The strict check when malformed entries are reported. It only looks at the lengths and the byte classes of
+     * the lines, which frame() has already found.
+     *
+     * @return the reason why the framed entry is malformed, or null
+     */
+    private String formatError() {
+        if (linesFramed < ROWS_PER_ENTRY) {
+            return "incomplete entry of " + linesFramed + (linesFramed == 1 ? " line" : " lines");
+        }
+        int width = lineEnd[0] - lineStart[0];
+        if (width == 0 || width % 3 != 0) {
+            return "line length " + width + " is not a positive multiple of 3";
+        }
+        for (int row = 1; row < ROWS_PER_ENTRY; row += 1) {
+            int length = lineEnd[row] - lineStart[row];
+            if (length != width) {
+                return "line " + (row + 1) + " has length " + length + " instead of " + width;
+            }
+        }
+        for (int row = 0; row < ROWS_PER_ENTRY; row += 1) {
+            if ((lineClasses[row] & ~(GlyphTable.BLANK | GlyphTable.STROKE)) != 0) {
+                return unexpectedByte(row, GlyphTable.BLANK | GlyphTable.STROKE);
+            }
+        }
+        if (linesFramed == LINES_PER_ENTRY && (lineClasses[ROWS_PER_ENTRY] & ~GlyphTable.BLANK) != 0) {
+            return unexpectedByte(ROWS_PER_ENTRY, GlyphTable.BLANK);
+        }
+        return null;
+    }
+
+    /**
+     * Only called for a malformed line, so it is fine to scan the line a second time.
+     */
+    private String unexpectedByte(int line, int allowedClasses) {
+        for (int i = lineStart[line]; i < lineEnd[line]; i += 1) {
+            if ((GlyphTable.byteClassOf(buffer[i]) & ~allowedClasses) != 0) {
+                return "line " + (line + 1) + " has the unexpected byte 0x"
+                        + Integer.toHexString(0x100 | buffer[i] & 0xff).substring(1)
+                        + " at column " + (i - lineStart[line] + 1);
+            }
+        }
+        return "line " + (line + 1) + " has an unexpected byte";
+    }
+}
@@ -0,0 +1,305 @@
+package de.pruefbit.kata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+
+/**
+ * Watches a directory of growing scan files, and decodes only the entries that were appended since the last time.
+ * <p>
+ * For every scan file, the results are appended to an output file in the output directory, named like the
+ * expected results of ScanFileGenerator ("name_in.txt" gives "name_out.txt"). Only complete entries are decoded,
+ * i.e. entries whose separator line was written, too. An entry that is still being written is left for later.
+ * A malformed entry gives a result line with its byte offset and the reason, and does not hold up the entries
+ * after it.
+ * <p>
+ * Next to each output file, a checkpoint ("name_in.txt.checkpoint") holds two byte offsets: how far the scan file
+ * was decoded, and how long the output file was at that point. The results are forced to disk before the
+ * checkpoint is replaced, and the checkpoint is replaced atomically, by writing a temporary file and moving it over
+ * the old one. On the next run, the output file is first cut back to the length in the checkpoint. So whenever
+ * the process stops, a restart goes on exactly after the last entry of the checkpoint, and no result is lost or
+ * written twice. An output file shorter than its checkpoint, e.g. one that was cut by hand, makes the checkpoint
+ * useless. Then every result line of the output file is taken to belong to one entry of the scan file, as they are
+ * written, and the watcher goes on after the last entry with a complete result line.
+ * <p>
+ * Usage example:
+ * <pre>
+ *     try (OcrScanWatcher watcher = new OcrScanWatcher(scanDirectory, outputDirectory, "*_in.txt")) {
+ *         watcher.run();
+ *     }
+ * </pre>
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class OcrScanWatcher implements Closeable {
+
+    private static final String CHECKPOINT_SUFFIX = ".checkpoint";
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path directory;
+    private final Path outputDirectory;
+    private final PathMatcher matcher;
+    private final WatchService watchService;
+
+    /**
+     * @param directory       the directory with the scan files
+     * @param outputDirectory the directory for the results and the checkpoints
+     * @param glob            the pattern of the names of the scan files, e.g. "*_in.txt"
+     * @throws IOException if the directory can not be watched
+     */
+    public OcrScanWatcher(Path directory, Path outputDirectory, String glob) throws IOException {
+        this.directory = directory;
+        this.outputDirectory = outputDirectory;
+        this.matcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+        this.watchService = directory.getFileSystem().newWatchService();
+        directory.register(watchService,
+                StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+
+    /**
+     * Decode the new entries of all scan files, then decode the new entries of every scan file that changes, until
+     * the watcher is closed or the thread is interrupted. A scan file that can not be read is reported on
+     * standard error and skipped, until it changes again.
+     *
+     * @throws IOException if the directory can not be read
+     */
+    public void run() throws IOException {
+        processAll();
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        processAll();
+                    } else {
+                        Path name = (Path) event.context();
+                        if (matcher.matches(name)) {
+                            processReporting(directory.resolve(name));
+                        }
+                    }
+                }
+                if (!key.reset()) {
+                    return;
+                }
+            }
+        } catch (ClosedWatchServiceException e) {
+            // closed, so stop watching
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Decode the new entries of all scan files in the directory.
+     *
+     * @return the number of new entries
+     * @throws IOException if the directory can not be read
+     */
+    public long processAll() throws IOException {
+        long count = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                if (matcher.matches(file.getFileName()) && Files.isRegularFile(file)) {
+                    count += processReporting(file);
+                }
+            }
+        }
+        return count;
+    }
+
+    private long processReporting(Path file) {
+        try {
+            return process(file);
+        } catch (IOException | UncheckedIOException | IllegalArgumentException e) {
+            System.err.println(file + ": " + e.getMessage());
+            return 0;
+        }
+    }
+
+    /**
+     * Decode the new entries of one scan file, append their results to its output file, and move its checkpoint.
+     * The checkpoint is only moved when all new entries were decoded and their results written. If anything fails,
+     * the checkpoint stays where it was, and the next run cuts the output file back and decodes the same entries
+     * again.
+     *
+     * @param file the scan file
+     * @return the number of new entries
+     * @throws IOException if one of the files can not be read or written
+     */
+    public long process(Path file) throws IOException {
+        Path checkpoint = checkpointFor(file);
+        long[] offsets = readCheckpoint(checkpoint);
+        try (FileChannel in = FileChannel.open(file, StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(outputFor(file),
+                     StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            if (in.size() < offsets[0]) {
+                throw new IOException("the scan file is shorter than its checkpoint, " + offsets[0] + " bytes");
+            }
+            if (out.size() < offsets[1]) {
+                offsets = offsetsCoveredBy(in, out);
+                System.err.println(file + ": the output is shorter than its checkpoint, going on at byte offset "
+                        + offsets[0]);
+            }
+            out.truncate(offsets[1]);
+            out.position(offsets[1]);
+            in.position(offsets[0]);
+            OcrScanReader reader = new OcrScanReader(in, offsets[0]);
+            reader.setCompleteEntriesOnly(true);
+            reader.setReportMalformed(true);
+            ByteBuffer results = ByteBuffer.allocate(BUFFER_SIZE);
+            long count = 0;
+            while (reader.hasNext()) {
+                String result = reader.next();
+                if (results.remaining() < result.length() + 1) {
+                    write(out, results);
+                }
+                for (int i = 0; i < result.length(); i += 1) {
+                    results.put((byte) result.charAt(i));
+                }
+                results.put((byte) '\n');
+                count += 1;
+            }
+            if (count > 0) {
+                write(out, results);
+                out.force(true);
+                writeCheckpoint(checkpoint, reader.endOffset(), out.position());
+            }
+            return count;
+        }
+    }
+
+    /**
+     * Find out how far the output covers the scan file, from its number of complete result lines.
+     *
+     * @return the offset in the scan file after the last entry with a result line, and the length of the output up
+     * to that line
+     */
+    private static long[] offsetsCoveredBy(FileChannel in, FileChannel out) throws IOException {
+        long[] lines = countLines(out, Long.MAX_VALUE);
+        in.position(0);
+        OcrScanReader reader = new OcrScanReader(in, 0);
+        reader.setCompleteEntriesOnly(true);
+        reader.setReportMalformed(true);
+        long entries = 0;
+        while (entries < lines[0] && reader.hasNext()) {
+            reader.skip();
+            entries += 1;
+        }
+        if (entries < lines[0]) {
+            lines = countLines(out, entries);
+        }
+        return new long[] {reader.endOffset(), lines[1]};
+    }
+
+    /**
+     * @return the number of complete lines of the file, at most maxLines, and the number of bytes they take
+     */
+    private static long[] countLines(FileChannel channel, long maxLines) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long lines = 0;
+        long length = 0;
+        long position = 0;
+        while (lines < maxLines && channel.read(buffer, position) > 0) {
+            buffer.flip();
+            while (lines < maxLines && buffer.hasRemaining()) {
+                if (buffer.get() == '\n') {
+                    lines += 1;
+                    length = position + buffer.position();
+                }
+            }
+            position += buffer.limit();
+            buffer.clear();
+        }
+        return new long[] {lines, length};
+    }
+
+    /**
+     * @param file a scan file
+     * @return the file its results are appended to
+     */
+    public Path outputFor(Path file) {
+        return outputDirectory.resolve(ScanFileGenerator.expectedPathFor(file).getFileName());
+    }
+
+    private Path checkpointFor(Path file) {
+        return outputDirectory.resolve(file.getFileName() + CHECKPOINT_SUFFIX);
+    }
+
+    private static long[] readCheckpoint(Path checkpoint) throws IOException {
+        if (!Files.exists(checkpoint)) {
+            return new long[] {0, 0};
+        }
+        String[] fields = new String(Files.readAllBytes(checkpoint), StandardCharsets.US_ASCII).trim().split(" ");
+        if (fields.length != 2) {
+            throw new IOException("damaged checkpoint " + checkpoint);
+        }
+        return new long[] {Long.parseLong(fields[0]), Long.parseLong(fields[1])};
+    }
+
+    private static void writeCheckpoint(Path checkpoint, long scanOffset, long outputLength) throws IOException {
+        Path temporary = checkpoint.resolveSibling(checkpoint.getFileName() + ".tmp");
+        try (FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer content = ByteBuffer.wrap(
+                    (scanOffset + " " + outputLength + "\n").getBytes(StandardCharsets.US_ASCII));
+            while (content.hasRemaining()) {
+                channel.write(content);
+            }
+            channel.force(true);
+        }
+        Files.move(temporary, checkpoint, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static void write(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /**
+     * Stop watching. A running run() returns.
+     */
+    @Override
+    public void close() throws IOException {
+        watchService.close();
+    }
+
+    /**
+     * Usage: OcrScanWatcher scan-directory [output-directory [glob]]
+     * <p>
+     * The output directory defaults to the scan directory, the glob to "*_in.txt".
+     *
+     * @param args the command line arguments
+     * @throws IOException if the directory can not be watched
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("usage: OcrScanWatcher scan-directory [output-directory [glob]]");
+            System.exit(2);
+        }
+        Path directory = Paths.get(args[0]);
+        Path outputDirectory = args.length > 1 ? Paths.get(args[1]) : directory;
+        String glob = args.length > 2 ? args[2] : "*_in.txt";
+        try (OcrScanWatcher watcher = new OcrScanWatcher(directory, outputDirectory, glob)) {
+            watcher.run();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package de.pruefbit.kata;
+
+/**
+ * Precomputed repairs for entries with a bad checksum.
+ * <p>
+ * The checksum is linear mod 11, so whether replacing one digit repairs an entry only depends on the weight of
+ * its position, the old and the new digit, and the residue of the entry. Since every weight 1 to 10 has an
+ * inverse mod 11, there is exactly one new value that brings the residue to 0. The fill-in table holds that
+ * value for every weight and residue, for a digit that could not be read at all. The repairs of a digit that was
+ * read depend on the digits it may be confused with, so every ScannerFont has its own table of them, computed
+ * with solve(). Listing all repairs of an entry thus takes one array read per position.
+ * <p>
+ * In numbers of more than 10 digits, a position may have a weight divisible by 11. A digit in such a position
+ * does not change the residue at all, so it can never repair the checksum, and if the checksum is already good
+ * without it, any digit fills it in.
+ * <p>
+ * The fill-in table is computed by TableGenerator and loaded from GeneratedTables on first use.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+final class RecoveryTable {
+
+    private RecoveryTable() {}
+
+    static final int NONE = -1;
+    static final int ANY = 10;
+
+    private static final int DIGITS = 10;
+
+    /**
+     * The fill-ins are loaded when they are first used, and not with RecoveryTable, so that TableGenerator can
+     * use solve() while GeneratedTables is broken.
+     */
+    private static final class FillIns {
+
+        private FillIns() {}
+
+        private static final byte[] fillIns = new byte[Checksum.MODULUS * Checksum.MODULUS];
+
+        static {
+            for (int n = 0; n < fillIns.length; n += 1) {
+                fillIns[n] = valueOf(GeneratedTables.RECOVERY_FILL_INS.charAt(n));
+            }
+        }
+
+        private static byte valueOf(char ch) {
+            return (byte) (ch == '-' ? NONE : ch == '*' ? ANY : ch - '0');
+        }
+    }
+
+    /**
+     * @param weight  the weight of a position in the checksum, from 1 to 10
+     * @param residue the residue of the entry
+     * @param digit   the digit at the position
+     * @return the digit that brings the residue to 0 in place of digit, or NONE if none does
+     */
+    static int solve(int weight, int residue, int digit) {
+        for (int repair = 0; repair < DIGITS; repair += 1) {
+            if (Checksum.residueAfter(residue, weight, digit, repair) == 0) {
+                return repair;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param weight  the weight of the position of an unreadable digit
+     * @param residue the residue of all other digits
+     * @return the digit that gives a good checksum in that position, NONE, or ANY if every digit does
+     */
+    static int fillInOf(int weight, int residue) {
+        return FillIns.fillIns[(weight % Checksum.MODULUS) * Checksum.MODULUS + residue];
+    }
+}
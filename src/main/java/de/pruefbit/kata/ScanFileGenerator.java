@@ -0,0 +1,363 @@
+package de.pruefbit.kata;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+/**
+ * Generates synthetic scan files of any size, for load and soak tests.
+ * <p>
+ * Every entry starts as a random account number with a good checksum, and is one of three kinds, in configurable
+ * shares. A valid entry is left as it is. An ERR entry gets a stroke added or removed in one cell, so that the cell
+ * shows another digit, and the checksum is bad, with all digits readable. An ILL entry either gets a stroke added
+ * or removed in one cell, so that the cell can not be read, or garbage in two or more cells. The stroke errors are
+ * the damage the recovery of User Story 4 is made for.
+ * <p>
+ * Next to the input file, the generator writes the expected results in the format of the User Story 4 output
+ * files. They are worked out from the glyphs as printed in the kata, not by the decoder, so they can catch a
+ * regression of the decoder: every cell is looked up among the glyphs of the kata, and if the checksum is bad,
+ * the repairs are searched by brute force, trying every digit that is one stroke away in every position, or in the
+ * one unreadable position. So an ERR entry gives its original account number, unless another repair gives a good
+ * checksum, too, and it is AMB.
+ * <p>
+ * The same seed and settings always give the same files. The files are written straight from a byte buffer, so
+ * the generator runs at about the speed of the disk.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public class ScanFileGenerator {
+
+    private static final int DIGITS = 9;
+    private static final int LINE_LENGTH = DIGITS * 3;
+    private static final int BUFFER_SIZE = 1 << 20;
+    private static final int UNREADABLE = -1;
+
+    /**
+     * The digits as printed in the kata.
+     */
+    private static final String[] SYMBOLS = {
+            " _     _  _     _  _  _  _  _ ",
+            "| |  | _| _||_||_ |_   ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_| _|"
+    };
+    private static final int[] DIGIT_GLYPHS = new int[10];
+
+    static {
+        for (int digit = 0; digit < 10; digit += 1) {
+            DIGIT_GLYPHS[digit] = GlyphTable.glyphOf(SYMBOLS, digit * 3);
+        }
+    }
+
+    private final SplittableRandom random;
+    private final int validPercent;
+    private final int errPercent;
+    private final int[] glyphs = new int[DIGITS];
+    private final int[] digits = new int[DIGITS];
+    private final int[] positions = new int[DIGITS];
+    private String suffix;
+
+    /**
+     * @param seed         the seed for the random numbers
+     * @param validPercent the share of entries with a good checksum
+     * @param errPercent   the share of entries with one digit changed into another one, the rest are ILL entries
+     */
+    public ScanFileGenerator(long seed, int validPercent, int errPercent) {
+        if (validPercent < 0 || errPercent < 0 || validPercent + errPercent > 100) {
+            throw new IllegalArgumentException("the shares must be between 0 and 100 percent in total");
+        }
+        this.random = new SplittableRandom(seed);
+        this.validPercent = validPercent;
+        this.errPercent = errPercent;
+    }
+
+    /**
+     * @return the three scanned lines of the next random entry
+     */
+    public String[] nextScanLine() {
+        nextEntry();
+        String[] scanLine = new String[3];
+        char[] line = new char[LINE_LENGTH];
+        for (int row = 0; row < 3; row += 1) {
+            for (int column = 0; column < LINE_LENGTH; column += 1) {
+                line[column] = GlyphTable.segmentChar(glyphs[column / 3], row * 3 + column % 3);
+            }
+            scanLine[row] = new String(line);
+        }
+        return scanLine;
+    }
+
+    /**
+     * @return the expected result of the entry generated last, in the format of the User Story 4 output files
+     */
+    public String expectedResult() {
+        char[] result = new char[DIGITS];
+        for (int n = 0; n < DIGITS; n += 1) {
+            result[n] = digits[n] == UNREADABLE ? '?' : (char) ('0' + digits[n]);
+        }
+        return new String(result) + suffix;
+    }
+
+    /**
+     * Write a scan file with the given number of entries, and the file with the expected results next to it.
+     *
+     * @param input   the scan file to write
+     * @param entries the number of entries
+     * @throws IOException if one of the files can not be written
+     */
+    public void generate(Path input, long entries) throws IOException {
+        try (FileChannel scans = create(input);
+             FileChannel results = create(expectedPathFor(input))) {
+            ByteBuffer scanBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            ByteBuffer resultBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+            int entrySize = 4 * (LINE_LENGTH + 1);
+            for (long n = 0; n < entries; n += 1) {
+                nextEntry();
+                if (scanBuffer.remaining() < entrySize) {
+                    flush(scans, scanBuffer);
+                }
+                if (resultBuffer.remaining() < entrySize) {
+                    flush(results, resultBuffer);
+                }
+                render(scanBuffer);
+                for (int digit : digits) {
+                    resultBuffer.put((byte) (digit == UNREADABLE ? '?' : '0' + digit));
+                }
+                for (int i = 0; i < suffix.length(); i += 1) {
+                    resultBuffer.put((byte) suffix.charAt(i));
+                }
+                resultBuffer.put((byte) '\n');
+            }
+            flush(scans, scanBuffer);
+            flush(results, resultBuffer);
+        }
+    }
+
+    /**
+     * The expected results of "name_in.txt" go to "name_out.txt". For any other name, ".out" is appended.
+     *
+     * @param input the scan file
+     * @return the file with the expected results
+     */
+    public static Path expectedPathFor(Path input) {
+        String name = input.getFileName().toString();
+        String expected = name.endsWith("_in.txt")
+                ? name.substring(0, name.length() - "_in.txt".length()) + "_out.txt"
+                : name + ".out";
+        return input.resolveSibling(expected);
+    }
+
+    private static FileChannel create(Path path) throws IOException {
+        return FileChannel.open(path,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+    }
+
+    private static void flush(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    private void render(ByteBuffer buffer) {
+        for (int row = 0; row < 3; row += 1) {
+            for (int column = 0; column < LINE_LENGTH; column += 1) {
+                buffer.put((byte) GlyphTable.segmentChar(glyphs[column / 3], row * 3 + column % 3));
+            }
+            buffer.put((byte) '\n');
+        }
+        for (int column = 0; column < LINE_LENGTH; column += 1) {
+            buffer.put((byte) ' ');
+        }
+        buffer.put((byte) '\n');
+    }
+
+    private void nextEntry() {
+        int kind = random.nextInt(100);
+        if (kind < validPercent) {
+            nextAccountNumber();
+        } else if (kind < validPercent + errPercent) {
+            do {
+                nextAccountNumber();
+            } while (!changeDigit());
+        } else if (random.nextBoolean()) {
+            nextAccountNumber();
+            damage(random.nextInt(DIGITS));
+        } else {
+            nextAccountNumber();
+            garbage();
+        }
+        read();
+    }
+
+    /**
+     * Draw random digits until the checksum is good.
+     */
+    private void nextAccountNumber() {
+        do {
+            for (int n = 0; n < DIGITS; n += 1) {
+                digits[n] = random.nextInt(10);
+            }
+        } while (checksum() != 0);
+        for (int n = 0; n < DIGITS; n += 1) {
+            glyphs[n] = DIGIT_GLYPHS[digits[n]];
+        }
+    }
+
+    /**
+     * Add or remove one stroke of a random cell, so that it shows another digit. Every position has its own weight
+     * in the checksum, and 11 is prime, so the checksum is bad afterwards.
+     *
+     * @return false if no digit of the account number is one stroke away from another digit, e.g. 424222224
+     */
+    private boolean changeDigit() {
+        int[] changes = new int[DIGITS * 9];
+        int count = 0;
+        for (int position = 0; position < DIGITS; position += 1) {
+            for (int segment = 0; segment < 9; segment += 1) {
+                int changed = glyphs[position] ^ 1 << segment;
+                if ((GlyphTable.SEGMENT_MASK & (1 << segment)) != 0 && digitOf(changed) != UNREADABLE) {
+                    changes[count] = position * 9 + segment;
+                    count += 1;
+                }
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+        int change = changes[random.nextInt(count)];
+        glyphs[change / 9] ^= 1 << change % 9;
+        return true;
+    }
+
+    /**
+     * Add or remove one stroke of a cell, so that it is no digit any more.
+     */
+    private void damage(int position) {
+        int glyph = glyphs[position];
+        int damaged;
+        do {
+            int segment;
+            do {
+                segment = random.nextInt(9);
+            } while ((GlyphTable.SEGMENT_MASK & (1 << segment)) == 0);
+            damaged = glyph ^ 1 << segment;
+        } while (digitOf(damaged) != UNREADABLE);
+        glyphs[position] = damaged;
+    }
+
+    /**
+     * Put random segments into two or more different cells. Most of them can not be read, some show a digit.
+     */
+    private void garbage() {
+        for (int n = 0; n < DIGITS; n += 1) {
+            positions[n] = n;
+        }
+        int cells = 2 + random.nextInt(DIGITS - 1);
+        for (int n = 0; n < cells; n += 1) {
+            int pick = n + random.nextInt(DIGITS - n);
+            int position = positions[pick];
+            positions[pick] = positions[n];
+            positions[n] = position;
+            glyphs[position] = random.nextInt(GlyphTable.INVALID) & GlyphTable.SEGMENT_MASK;
+        }
+    }
+
+    /**
+     * Read the cells with the glyphs of the kata, and if the checksum is bad, search the repairs. With two or more
+     * unreadable cells, there is nothing to repair.
+     */
+    private void read() {
+        int unreadable = 0;
+        int unreadablePosition = 0;
+        for (int n = 0; n < DIGITS; n += 1) {
+            digits[n] = digitOf(glyphs[n]);
+            if (digits[n] == UNREADABLE) {
+                unreadable += 1;
+                unreadablePosition = n;
+            }
+        }
+        suffix = "";
+        if (unreadable == 0 && checksum() != 0) {
+            repair(0, DIGITS);
+        } else if (unreadable == 1) {
+            repair(unreadablePosition, unreadablePosition + 1);
+        } else if (unreadable > 1) {
+            suffix = " ILL";
+        }
+    }
+
+    /**
+     * Try every digit that is one stroke away from the cell, in every position from first to before end, and keep
+     * the ones that give a good checksum.
+     */
+    private void repair(int first, int end) {
+        int repairs = 0;
+        int repairPosition = 0;
+        int repairDigit = 0;
+        for (int position = first; position < end; position += 1) {
+            int original = digits[position];
+            for (int digit = 0; digit < 10; digit += 1) {
+                if (Integer.bitCount(DIGIT_GLYPHS[digit] ^ glyphs[position]) == 1) {
+                    digits[position] = digit;
+                    if (checksum() == 0) {
+                        repairs += 1;
+                        repairPosition = position;
+                        repairDigit = digit;
+                    }
+                }
+            }
+            digits[position] = original;
+        }
+        if (repairs == 0) {
+            suffix = " ERR";
+        } else if (repairs > 1) {
+            suffix = " AMB";
+        } else {
+            digits[repairPosition] = repairDigit;
+        }
+    }
+
+    /**
+     * The checksum of the kata: d9 + 2 * d8 + ... + 9 * d1, modulo 11, with d1 the leftmost digit.
+     */
+    private int checksum() {
+        int sum = 0;
+        for (int n = 0; n < DIGITS; n += 1) {
+            sum += (DIGITS - n) * digits[n];
+        }
+        return sum % 11;
+    }
+
+    private static int digitOf(int glyph) {
+        for (int digit = 0; digit < 10; digit += 1) {
+            if (DIGIT_GLYPHS[digit] == glyph) {
+                return digit;
+            }
+        }
+        return UNREADABLE;
+    }
+
+    /**
+     * Usage: ScanFileGenerator input-file entries [seed [valid-percent [err-percent]]]
+     *
+     * @param args the command line arguments
+     * @throws IOException if one of the files can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println(
+                    "usage: ScanFileGenerator input-file entries [seed [valid-percent [err-percent]]]");
+            System.exit(2);
+        }
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 0L;
+        int validPercent = args.length > 3 ? Integer.parseInt(args[3]) : 92;
+        int errPercent = args.length > 4 ? Integer.parseInt(args[4]) : 3;
+        new ScanFileGenerator(seed, validPercent, errPercent)
+                .generate(Paths.get(args[0]), Long.parseLong(args[1]));
+    }
+}
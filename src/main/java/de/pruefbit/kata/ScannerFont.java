@@ -0,0 +1,205 @@
+package de.pruefbit.kata;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * The way a scanner renders digits, compiled into lookup tables for the decoder.
+ * <p>
+ * A font is defined by the glyphs of its digits. Every glyph is a 9 bit value, so a font compiles into tables of
+ * GlyphTable.SIZE entries that are indexed by the glyph directly: the digit of every glyph, and the digits every
+ * glyph is one stroke away from. These alternatives are derived from the font: a digit is an alternative of a
+ * glyph, if one of its glyphs differs from it in exactly one segment, i.e. by one added or one missing stroke. The
+ * recovery of bad checksums works with the alternatives of the glyphs that were read, too.
+ * <p>
+ * A digit may have several glyphs, e.g. a 7 with and without a hook. Fonts are combined by compiling all their
+ * glyphs into one font, which fails if two fonts use the same glyph for different digits. So the entries of
+ * several scanner models can be decoded in one batch, and decoding a cell still takes one array access, no matter
+ * how many fonts were combined.
+ * <p>
+ * A font definition is a text with three rows of cells, as in a scan file, and a fourth line with the digit of
+ * every cell. Empty lines and lines beginning with "#" are ignored, and short rows are filled up with blanks:
+ * <pre>
+ *     # the 7 with a hook, as printed by our second scanner model
+ *      _     _  _     _  _  _  _  _  _
+ *     | |  | _| _||_||_ |_   ||_||_|| |
+ *     |_|  ||_  _|  | _||_|  ||_| _|  |
+ *     01234567897
+ * </pre>
+ * The STANDARD font is the one of the kata. Its tables are precomputed by TableGenerator, so it is not compiled
+ * at startup, only copied from string constants.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class ScannerFont {
+
+    private static final int DIGITS = FontTables.DIGITS;
+
+    /**
+     * The font of the kata, as in the User Story files.
+     */
+    public static final ScannerFont STANDARD = precomputed();
+
+    private final int[] glyphs;
+    private final int[] glyphDigits;
+    private final int[] digitGlyphs = new int[DIGITS];
+    private final char[] digits;
+    private final char[][] repairs;
+    private final byte[] recoveryRepairs;
+
+    private ScannerFont(FontTables tables) {
+        this.glyphs = tables.glyphs;
+        this.glyphDigits = tables.glyphDigits;
+        this.digits = tables.digits;
+        this.repairs = tables.repairs;
+        this.recoveryRepairs = tables.recoveryRepairs;
+        for (int n = glyphs.length - 1; n >= 0; n -= 1) {
+            digitGlyphs[glyphDigits[n]] = glyphs[n];
+        }
+    }
+
+    private static ScannerFont precomputed() {
+        int[] glyphs = GeneratedTables.DIGIT_GLYPHS.clone();
+        int[] glyphDigits = new int[DIGITS];
+        for (int digit = 0; digit < DIGITS; digit += 1) {
+            glyphDigits[digit] = digit;
+        }
+        char[][] repairSets = new char[GeneratedTables.REPAIR_SETS.length][];
+        for (int n = 0; n < repairSets.length; n += 1) {
+            repairSets[n] = GeneratedTables.REPAIR_SETS[n].toCharArray();
+        }
+        char[][] repairs = new char[GlyphTable.SIZE][];
+        for (int glyph = 0; glyph < GlyphTable.SIZE; glyph += 1) {
+            repairs[glyph] = repairSets[GeneratedTables.REPAIRS.charAt(glyph) - 'A'];
+        }
+        byte[] recoveryRepairs = new byte[GeneratedTables.RECOVERY_REPAIRS.length()];
+        for (int n = 0; n < recoveryRepairs.length; n += 1) {
+            char ch = GeneratedTables.RECOVERY_REPAIRS.charAt(n);
+            recoveryRepairs[n] = (byte) (ch == '-' ? RecoveryTable.NONE : ch - '0');
+        }
+        return new ScannerFont(new FontTables(glyphs, glyphDigits, GeneratedTables.DIGITS.toCharArray(), repairs,
+                recoveryRepairs));
+    }
+
+    /**
+     * @param path a font definition file
+     * @return the compiled font
+     * @throws IOException if the file can not be read
+     * @throws IllegalArgumentException if the definition is not a valid font
+     */
+    public static ScannerFont load(Path path) throws IOException {
+        return parse(Files.readAllLines(path, StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param definition the lines of a font definition
+     * @return the compiled font
+     * @throws IllegalArgumentException if the definition is not a valid font
+     */
+    public static ScannerFont parse(List<String> definition) {
+        return new ScannerFont(FontTables.parse(definition));
+    }
+
+    /**
+     * Combine fonts into one, which recognizes the glyphs of all of them. The alternatives are derived anew, from
+     * the glyphs of all fonts.
+     *
+     * @param fonts the fonts to combine
+     * @return the combined font
+     * @throws IllegalArgumentException if two fonts use the same glyph for different digits
+     */
+    public static ScannerFont combine(ScannerFont... fonts) {
+        int count = 0;
+        for (ScannerFont font : fonts) {
+            count += font.glyphs.length;
+        }
+        int[] glyphs = new int[count];
+        int[] glyphDigits = new int[count];
+        int n = 0;
+        for (ScannerFont font : fonts) {
+            System.arraycopy(font.glyphs, 0, glyphs, n, font.glyphs.length);
+            System.arraycopy(font.glyphDigits, 0, glyphDigits, n, font.glyphs.length);
+            n += font.glyphs.length;
+        }
+        return compile(glyphs, glyphDigits);
+    }
+
+    /**
+     * Build the direct-index tables of a font, see FontTables.
+     */
+    static ScannerFont compile(int[] glyphs, int[] glyphDigits) {
+        return new ScannerFont(FontTables.compile(glyphs, glyphDigits));
+    }
+
+    /**
+     * @return the number of glyphs the font was defined with
+     */
+    public int glyphCount() {
+        return glyphs.length;
+    }
+
+    /**
+     * @param scanLine the three scanned lines of an entry
+     * @return the digits recognized, with '?' for a glyph that is not a digit of this font
+     */
+    public String decode(String[] scanLine) {
+        char[] numberString = new char[(scanLine[0].length() + 2) / 3];
+        for (int n = 0; n < numberString.length; n += 1) {
+            numberString[n] = digitOf(GlyphTable.glyphOf(scanLine, n * 3));
+        }
+        return new String(numberString);
+    }
+
+    /**
+     * @param digit the digit value 0 to 9
+     * @return the first glyph of the digit in the font definition
+     */
+    int glyphOfDigit(int digit) {
+        return digitGlyphs[digit];
+    }
+
+    /**
+     * @param glyph a packed cell
+     * @return the digit of the glyph, or '?' if the glyph is not a digit
+     */
+    char digitOf(int glyph) {
+        return digits[glyph];
+    }
+
+    /**
+     * For a digit glyph, these are the other digits that are one stroke away.
+     * For an unreadable glyph, these are the digits it might have been meant to be.
+     *
+     * @param glyph a packed cell
+     * @return the alternative digits, possibly none
+     */
+    char[] alternativesOf(int glyph) {
+        return repairs[glyph];
+    }
+
+    /**
+     * The recovery table holds the repairs of a digit, from all its glyphs. If a digit has several glyphs, a repair
+     * of one of them may be two strokes away from another, so the repair is checked against the alternatives of
+     * the glyph that was actually read.
+     *
+     * @param weight  the weight of the position in the checksum
+     * @param digit   the digit read at the position
+     * @param glyph   the glyph the digit was read from
+     * @param residue the residue of the entry
+     * @return the alternative of the glyph that repairs the checksum, or RecoveryTable.NONE
+     */
+    int repairOf(int weight, int digit, int glyph, int residue) {
+        int repair = recoveryRepairs[((weight % Checksum.MODULUS) * DIGITS + digit) * Checksum.MODULUS + residue];
+        if (repair != RecoveryTable.NONE) {
+            for (char ch : repairs[glyph]) {
+                if (ch - '0' == repair) {
+                    return repair;
+                }
+            }
+        }
+        return RecoveryTable.NONE;
+    }
+}
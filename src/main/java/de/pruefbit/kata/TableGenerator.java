@@ -0,0 +1,165 @@
+package de.pruefbit.kata;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Generates the source of GeneratedTables, the precomputed lookup tables of the standard ScannerFont.
+ * <p>
+ * The glyphs of the digits are kept here in the readable form of a font definition. The generator compiles it
+ * with FontTables, like any other font, into the digit and the alternatives of every one of the 1024 glyphs, and
+ * the repairs of the recovery table. It writes them as string constants, which the JVM loads from the constant pool
+ * and copies into arrays in one go, so the font tables do not have to be compiled when ScannerFont is initialized.
+ * Only the small byte tables of GlyphTable are still filled in by a loop.
+ * <p>
+ * The generator does not use ScannerFont, nor anything else that loads GeneratedTables, so it runs even if
+ * GeneratedTables is stale or broken.
+ * <p>
+ * After changing the font here, run the generator and replace GeneratedTables.java with its output:
+ * <pre>
+ *     java -cp target/classes de.pruefbit.kata.TableGenerator src/main/java/de/pruefbit/kata/GeneratedTables.java
+ * </pre>
+ * A unit test makes sure that the checked-in source is up to date.
+ *
+ * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58
+ */
+public final class TableGenerator {
+
+    private TableGenerator() {}
+
+    private static final int CHARS_PER_LINE = 64;
+
+    private static final String[] standardFont = {
+            " _     _  _     _  _  _  _  _ ",
+            "| |  | _| _||_||_ |_   ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_| _|",
+            "0123456789"
+    };
+
+    /**
+     * @return the source of GeneratedTables
+     */
+    public static String generate() {
+        FontTables font = FontTables.parse(Arrays.asList(standardFont));
+        int[] digitGlyphs = new int[FontTables.DIGITS];
+        for (int n = 0; n < digitGlyphs.length; n += 1) {
+            digitGlyphs[n] = font.glyphOfDigit(n);
+        }
+        List<String> repairSets = new ArrayList<>();
+        char[] repairs = new char[GlyphTable.SIZE];
+        for (int glyph = 0; glyph < GlyphTable.SIZE; glyph += 1) {
+            repairs[glyph] = repairSet(repairSets, new String(font.repairs[glyph]));
+        }
+
+        StringBuilder source = new StringBuilder();
+        source.append("package de.pruefbit.kata;\n\n")
+                .append("/**\n")
+                .append(" * The precomputed lookup tables of the standard ScannerFont and of RecoveryTable.\n")
+                .append(" * <p>\n")
+                .append(" * Generated by TableGenerator. Do not edit, run the generator instead.\n")
+                .append(" *\n")
+                .append(" * @author Karl-Dieter Zimmer-Bentin, https://github.com/techrabbit58\n")
+                .append(" */\n")
+                .append("final class GeneratedTables {\n\n")
+                .append("    private GeneratedTables() {}\n\n");
+        source.append("    /**\n     * The glyph of every digit.\n     */\n");
+        source.append("    static final int[] DIGIT_GLYPHS = {");
+        for (int n = 0; n < digitGlyphs.length; n += 1) {
+            source.append(n == 0 ? "" : ", ").append(digitGlyphs[n]);
+        }
+        source.append("};\n\n");
+        source.append("    /**\n")
+                .append("     * All the different sets of alternatives. REPAIRS refers to them, 'A' is the first.\n")
+                .append("     */\n");
+        appendStrings(source, "REPAIR_SETS", repairSets);
+        source.append("    /**\n     * The digit of every glyph, or '?'.\n     */\n");
+        appendString(source, "DIGITS", new String(font.digits));
+        source.append("    /**\n     * The set of alternatives of every glyph.\n     */\n");
+        appendString(source, "REPAIRS", new String(repairs));
+        source.append("    /**\n     * The repair for every weight, digit and residue, or '-' for none.\n     */\n");
+        appendString(source, "RECOVERY_REPAIRS", recoveryRepairs(font));
+        source.append("    /**\n     * The fill-in for every weight and residue, '-' for none, or '*' for any digit.\n")
+                .append("     */\n");
+        appendString(source, "RECOVERY_FILL_INS", recoveryFillIns());
+        source.setLength(source.length() - 1);
+        source.append("}\n");
+        return source.toString();
+    }
+
+    private static char repairSet(List<String> repairSets, String set) {
+        int index = repairSets.indexOf(set);
+        if (index < 0) {
+            index = repairSets.size();
+            repairSets.add(set);
+        }
+        return (char) ('A' + index);
+    }
+
+    private static String recoveryRepairs(FontTables font) {
+        StringBuilder repairs = new StringBuilder();
+        for (int weight = 0; weight < Checksum.MODULUS; weight += 1) {
+            for (int digit = 0; digit < 10; digit += 1) {
+                for (int residue = 0; residue < Checksum.MODULUS; residue += 1) {
+                    int repair = font.repairOf(weight, digit, residue);
+                    repairs.append(repair == RecoveryTable.NONE ? '-' : (char) ('0' + repair));
+                }
+            }
+        }
+        return repairs.toString();
+    }
+
+    private static String recoveryFillIns() {
+        StringBuilder fillIns = new StringBuilder();
+        for (int weight = 0; weight < Checksum.MODULUS; weight += 1) {
+            for (int residue = 0; residue < Checksum.MODULUS; residue += 1) {
+                int fillIn = weight == 0
+                        ? (residue == 0 ? RecoveryTable.ANY : RecoveryTable.NONE)
+                        : RecoveryTable.solve(weight, residue, 0);
+                fillIns.append(fillIn == RecoveryTable.ANY ? '*' : fillIn < 0 ? '-' : (char) ('0' + fillIn));
+            }
+        }
+        return fillIns.toString();
+    }
+
+    private static void appendStrings(StringBuilder source, String name, List<String> values) {
+        source.append("    static final String[] ").append(name).append(" = {\n");
+        for (int n = 0; n < values.size(); n += 1) {
+            source.append(n % 10 == 0 ? "            " : " ")
+                    .append('"').append(values.get(n)).append('"')
+                    .append(n == values.size() - 1 ? "\n" : n % 10 == 9 ? ",\n" : ",");
+        }
+        source.append("    };\n\n");
+    }
+
+    private static void appendString(StringBuilder source, String name, String value) {
+        source.append("    static final String ").append(name).append(" = \"\"");
+        for (int n = 0; n < value.length(); n += CHARS_PER_LINE) {
+            source.append("\n            + \"")
+                    .append(value, n, Math.min(value.length(), n + CHARS_PER_LINE))
+                    .append('"');
+        }
+        source.append(";\n\n");
+    }
+
+    /**
+     * Usage: TableGenerator [output-file]
+     * <p>
+     * Without an output file, the source goes to standard output.
+     *
+     * @param args the command line arguments
+     * @throws IOException if the output file can not be written
+     */
+    public static void main(String[] args) throws IOException {
+        String source = generate();
+        if (args.length > 0) {
+            Files.write(Paths.get(args[0]), source.getBytes(StandardCharsets.UTF_8));
+        } else {
+            System.out.print(source);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import de.pruefbit.kata.AccountNumberIndex;
+import de.pruefbit.kata.OcrScanReader;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * An index takes 125 MB, or 250 MB with duplicates, so all tests share two sparse index files, and each test uses
+ * account numbers of its own.
+ */
+class AccountNumberIndexTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+
+    @TempDir
+    static Path tmp;
+
+    private static AccountNumberIndex index;
+    private static AccountNumberIndex duplicatesIndex;
+
+    @BeforeAll
+    static void openIndexes() throws IOException {
+        index = AccountNumberIndex.open(tmp.resolve("accounts.idx"), false);
+        duplicatesIndex = AccountNumberIndex.open(tmp.resolve("duplicates.idx"), true);
+    }
+
+    @AfterAll
+    static void closeIndexes() {
+        index.close();
+        duplicatesIndex.close();
+    }
+
+    @Test
+    void addsAccountNumbersOnce() {
+        long before = index.count();
+        assertTrue(index.add(490867715));
+        assertTrue(index.add(0));
+        assertTrue(index.add(999999999));
+        assertFalse(index.add(490867715));
+        assertTrue(index.contains(490867715));
+        assertFalse(index.contains(490867716));
+        assertEquals(before + 3, index.count());
+        assertThrows(IllegalArgumentException.class, () -> index.add(1_000_000_000));
+        assertThrows(IllegalArgumentException.class, () -> index.add(-1));
+        assertThrows(IllegalStateException.class, () -> index.isDuplicate(0));
+    }
+
+    /**
+     * The file keeps the account numbers, and the ones seen twice, for the next run that opens it.
+     */
+    @Test
+    void persistsBetweenRuns() throws IOException {
+        Path file = tmp.resolve("duplicates.idx");
+        long before = duplicatesIndex.count();
+        long duplicatesBefore = duplicatesIndex.duplicateCount();
+        assertTrue(duplicatesIndex.add(111111110));
+        assertTrue(duplicatesIndex.add(345882865));
+        assertFalse(duplicatesIndex.add(345882865));
+        duplicatesIndex.force();
+        assertEquals(2L * AccountNumberIndex.BIT_SET_SIZE, Files.size(file));
+        try (AccountNumberIndex next = AccountNumberIndex.open(file, true)) {
+            assertTrue(next.contains(111111110));
+            assertFalse(next.isDuplicate(111111110));
+            assertTrue(next.isDuplicate(345882865));
+            assertFalse(next.add(111111110));
+            assertTrue(next.isDuplicate(111111110));
+            assertEquals(before + 2, next.count());
+            assertEquals(duplicatesBefore + 2, next.duplicateCount());
+        }
+        assertThrows(IOException.class, () -> AccountNumberIndex.open(file, false));
+    }
+
+    /**
+     * Many threads add overlapping account numbers at the same time, many of them sharing a long of the bit set.
+     * Exactly one thread finds each account number new.
+     */
+    @Test
+    void onlyOneThreadFindsAccountNumberNew() throws Exception {
+        int threads = 8;
+        int numbers = 100_000;
+        AtomicLongArray newCounts = new AtomicLongArray(numbers);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        AccountNumberIndex index = duplicatesIndex;
+        long before = index.count();
+        long duplicatesBefore = index.duplicateCount();
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t += 1) {
+                int offset = t * 1000;
+                futures.add(pool.submit(() -> {
+                    for (int n = 0; n < numbers; n += 1) {
+                        int number = (n + offset) % numbers;
+                        if (index.add(500_000_000L + number)) {
+                            newCounts.incrementAndGet(number);
+                        }
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+            for (int n = 0; n < numbers; n += 1) {
+                assertEquals(1, newCounts.get(n));
+                assertTrue(index.isDuplicate(500_000_000L + n));
+            }
+            assertEquals(before + numbers, index.count());
+            assertEquals(duplicatesBefore + numbers, index.duplicateCount());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * A reader with an index tells which good entries were seen before, also in an earlier file.
+     */
+    @Test
+    void readerFindsRepeatedAccountNumbers() throws Exception {
+        AccountNumberIndex index = duplicatesIndex;
+        long before = index.count();
+        int good = 0;
+        try (OcrScanReader reader = OcrScanReader.open(OcrScanReaderTest.resource(US4_INPUT_FILENAME))) {
+            reader.setIndex(index);
+            while (reader.hasNext()) {
+                long accountNumber = AccountNumberIndex.accountNumberOf(reader.next());
+                assertFalse(reader.isRepeated());
+                good += accountNumber >= 0 ? 1 : 0;
+            }
+        }
+        assertTrue(good > 0);
+        assertEquals(before + good, index.count());
+        try (OcrScanReader reader = OcrScanReader.open(OcrScanReaderTest.resource(US4_INPUT_FILENAME))) {
+            reader.setIndex(index);
+            while (reader.hasNext()) {
+                long accountNumber = AccountNumberIndex.accountNumberOf(reader.nextResult());
+                assertEquals(accountNumber >= 0, reader.isRepeated());
+            }
+        }
+    }
+}
@@ -0,0 +1,60 @@
+import de.pruefbit.kata.Checksum;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.CsvSource;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChecksumTest {
+
+    @ParameterizedTest
+    @CsvSource({
+            "345882865, 0",
+            "123456789, 0",
+            "000000057, 6",
+            "111111111, 1",
+            "1?3456789, -1",
+    })
+    void residueOfCharacters(String digits, int expectation) {
+        assertEquals(expectation, Checksum.residue(digits, 9));
+    }
+
+    @Test
+    void primitiveDigitsGiveTheSameResidue() {
+        int[] ints = {4, 9, 0, 8, 6, 7, 7, 1, 5};
+        byte[] bytes = {4, 9, 0, 8, 6, 7, 7, 1, 5};
+        assertTrue(Checksum.isValid("490867715", 9));
+        assertTrue(Checksum.isValid(ints, 9));
+        assertTrue(Checksum.isValid(bytes, 9));
+        ints[3] = 10;
+        assertEquals(Checksum.UNREADABLE, Checksum.residue(ints, 9));
+    }
+
+    /**
+     * Replacing a digit incrementally must give the same residue as summing up all digits again,
+     * for every position and every pair of digits.
+     */
+    @Test
+    void incrementalReplacementMatchesFullChecksum() {
+        String base = "490067715";
+        int residue = Checksum.residue(base, 9);
+        for (int position = 0; position < 9; position += 1) {
+            int oldDigit = base.charAt(position) - '0';
+            for (char ch = '0'; ch <= '9'; ch += 1) {
+                StringBuilder variant = new StringBuilder(base);
+                variant.setCharAt(position, ch);
+                assertEquals(Checksum.residue(variant, 9),
+                        Checksum.residueAfter(residue, Checksum.weight(position, 9), oldDigit, ch - '0'));
+            }
+        }
+    }
+
+    @Test
+    void residueWithoutLeavesOutOnePosition() {
+        int residue = Checksum.residueWithout("49006771?", 9, 8);
+        assertEquals(Checksum.residue("490067715", 9), Checksum.residueAfter(residue, 1, 0, 5));
+        assertFalse(Checksum.isValid("49006771?", 9));
+    }
+}
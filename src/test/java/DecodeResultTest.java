@@ -0,0 +1,104 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class DecodeResultTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    private static String legacyResult(String[] scanLine) {
+        String actualResult = OcrDecode.decode(scanLine);
+        if (!OcrDecode.isAccountNumberValid(actualResult)) {
+            actualResult = OcrDecode.tryRecoverErrOrIll(scanLine, actualResult);
+        }
+        return actualResult;
+    }
+
+    /**
+     * The string form must be exactly the User Story 4 output.
+     */
+    @Test
+    void toStringGivesUserStory4Results() throws Exception {
+        List<String> lines = Files.readAllLines(OcrScanReaderTest.resource(US4_INPUT_FILENAME));
+        List<String> expected = Files.readAllLines(OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME));
+        List<String> actual = new ArrayList<>();
+        for (int n = 0; n + 2 < lines.size(); n += 4) {
+            actual.add(DecodeResult.evaluate(new String[] {lines.get(n), lines.get(n + 1), lines.get(n + 2)})
+                    .toString());
+        }
+        assertEquals(expected, actual);
+    }
+
+    /**
+     * Any entry gives the same outcome as the string pipeline, and the packed form keeps everything but the
+     * candidates.
+     */
+    @Test
+    void agreesWithStringPipelineAndPackedForm() {
+        ScanFileGenerator generator = new ScanFileGenerator(99L, 50, 20);
+        for (int n = 0; n < 20000; n += 1) {
+            String[] scanLine = generator.nextScanLine();
+            DecodeResult result = DecodeResult.evaluate(scanLine);
+            assertEquals(legacyResult(scanLine), result.toString());
+
+            long packed = result.toPacked();
+            assertEquals(result.status(), DecodeResult.statusOf(packed));
+            assertEquals(9, DecodeResult.lengthOf(packed));
+            assertEquals(result.accountNumber(), DecodeResult.accountNumberOf(packed));
+            assertEquals(result.unknownMask(), DecodeResult.unknownMaskOf(packed));
+            assertEquals(result.toString(), DecodeResult.fromPacked(packed).toString());
+            assertEquals(packed, DecodeResult.fromPacked(packed).toPacked());
+        }
+    }
+
+    @Test
+    void ambiguousResultListsItsCandidates() {
+        String[] scanLine = {
+                " _  _  _  _  _  _  _  _  _ ",
+                "|_||_||_||_||_||_||_||_||_|",
+                "|_||_||_||_||_||_||_||_||_|"
+        };
+        DecodeResult result = DecodeResult.evaluate(scanLine);
+        assertEquals(DecodeResult.Status.AMB, result.status());
+        Set<String> candidates = new HashSet<>();
+        for (int n = 0; n < result.candidateCount(); n += 1) {
+            candidates.add(result.candidate(n));
+        }
+        assertEquals(Set.of("888886888", "888888880", "888888988"), candidates);
+    }
+
+    @Test
+    void recoveredUnreadableDigitStaysInUnknownMask() {
+        String[] scanLine = {
+                "    _  _     _  _  _  _  _ ",
+                " _| _| _||_||_ |_   ||_||_|",
+                "  ||_  _|  | _||_|  ||_| _|"
+        };
+        DecodeResult result = DecodeResult.evaluate(scanLine);
+        assertEquals(DecodeResult.Status.RECOVERED, result.status());
+        assertEquals("123456789", result.toString());
+        assertEquals(123456789L, result.accountNumber());
+        assertEquals(1L, result.unknownMask());
+    }
+
+    @Test
+    void wideEntriesHaveNoPackedForm() {
+        String[] scanLine = {
+                "                              ",
+                "  |  |  |  |  |  |  |  |  |  |",
+                "  |  |  |  |  |  |  |  |  |  |"
+        };
+        assertThrows(IllegalStateException.class, () -> DecodeResult.evaluate(scanLine).toPacked());
+    }
+}
@@ -0,0 +1,86 @@
+import de.pruefbit.kata.MultiDigitRecovery;
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.ScanFileGenerator;
+import de.pruefbit.kata.ScannerFont;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class MultiDigitRecoveryTest {
+
+    /**
+     * 123456789 with a stroke missing in the "1" and another one missing in the "5".
+     */
+    private static final String[] TWO_DAMAGED_CELLS = {
+            "    _  _     _  _  _  _  _ ",
+            "  | _| _||_||_ |_   ||_||_|",
+            "   |_  _|  |  ||_|  ||_| _|"
+    };
+
+    /**
+     * The font of a scanner that prints the 7 with a hook.
+     */
+    private static final List<String> HOOK_DEFINITION = Arrays.asList(
+            " _     _  _     _  _  _  _  _",
+            "| |  | _| _||_||_ |_ | ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_| _|",
+            "",
+            "0123456789");
+
+    /**
+     * 777777177 of the hook font, with the hook missing in the first and in the fifth "7", which makes them
+     * look like the 7 of the standard font.
+     */
+    private static final String[] TWO_DAMAGED_HOOK_CELLS = {
+            " _  _  _  _  _  _     _  _ ",
+            "  || || || |  || |  || || |",
+            "  |  |  |  |  |  |  |  |  |"
+    };
+
+    /**
+     * With only one edit, the results must be the same as those of User Story 4.
+     */
+    @Test
+    void oneEditIsUserStory4() {
+        MultiDigitRecovery recovery = new MultiDigitRecovery(1, 1_000_000, 1_000_000_000L);
+        ScanFileGenerator generator = new ScanFileGenerator(11L, 50, 20);
+        for (int n = 0; n < 5000; n += 1) {
+            String[] scanLine = generator.nextScanLine();
+            String decoded = OcrDecode.decode(scanLine);
+            if (!OcrDecode.isAccountNumberValid(decoded)) {
+                assertEquals(OcrDecode.tryRecoverErrOrIll(scanLine, decoded),
+                        recovery.tryRecoverErrOrIll(scanLine, decoded));
+            }
+        }
+    }
+
+    @Test
+    void recoversTwoUnreadableDigits() {
+        String decoded = OcrDecode.decode(TWO_DAMAGED_CELLS);
+        assertEquals("?234?6789", decoded);
+        assertEquals("?234?6789 ILL", OcrDecode.tryRecoverErrOrIll(TWO_DAMAGED_CELLS, decoded));
+        MultiDigitRecovery recovery = new MultiDigitRecovery(2, 1_000_000, 1_000_000_000L);
+        assertEquals("123456789", recovery.evaluate(TWO_DAMAGED_CELLS));
+        assertEquals(0, recovery.exhaustedCount());
+    }
+
+    @Test
+    void givesUpWhenTheBudgetRunsOut() {
+        MultiDigitRecovery recovery = new MultiDigitRecovery(3, 1, 1_000_000_000L);
+        assertEquals("?234?6789 ILL", recovery.evaluate(TWO_DAMAGED_CELLS));
+        assertEquals(1, recovery.exhaustedCount());
+    }
+
+    @Test
+    void recoversWithTheGivenFont() {
+        ScannerFont hook = ScannerFont.parse(HOOK_DEFINITION);
+        assertEquals("7???7?1?? ILL", new MultiDigitRecovery(2, 1_000_000, 1_000_000_000L)
+                .evaluate(TWO_DAMAGED_HOOK_CELLS));
+        MultiDigitRecovery recovery = new MultiDigitRecovery(2, 1_000_000, 1_000_000_000L, hook);
+        assertEquals("777777177", recovery.evaluate(TWO_DAMAGED_HOOK_CELLS));
+        assertEquals(0, recovery.exhaustedCount());
+    }
+}
@@ -0,0 +1,162 @@
+import de.pruefbit.kata.OcrBatchDecoder;
+import de.pruefbit.kata.OcrScanReader;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OcrBatchDecoderTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    static Path resource(String fn) throws URISyntaxException {
+        return Paths.get(ClassLoader.getSystemResource(fn).toURI());
+    }
+
+    @Test
+    void decodesUserStory4File() throws Exception {
+        List<String> expected = Files.readAllLines(resource(EXPECTED_US4_RESULTS_FILENAME));
+        assertEquals(expected, OcrBatchDecoder.decode(resource(US4_INPUT_FILENAME)));
+    }
+
+    /**
+     * A file with many chunks must give the same results, in the same order, as the sequential reader.
+     */
+    @Test
+    void parallelResultsKeepInputOrder(@TempDir Path tmp) throws Exception {
+        byte[] scan = Files.readAllBytes(resource(US4_INPUT_FILENAME));
+        Path large = tmp.resolve("large_in.txt");
+        List<String> expected = new ArrayList<>();
+        List<String> us4 = Files.readAllLines(resource(EXPECTED_US4_RESULTS_FILENAME));
+        try (OutputStream out = Files.newOutputStream(large)) {
+            for (int n = 0; n < 3000; n += 1) {
+                out.write(scan);
+                expected.addAll(us4);
+            }
+        }
+        ForkJoinPool pool = new ForkJoinPool(4);
+        assertEquals(expected, OcrBatchDecoder.decode(large, pool));
+        pool.shutdown();
+        try (Stream<String> results = OcrScanReader.open(large).results()) {
+            assertEquals(expected, results.collect(Collectors.toList()));
+        }
+    }
+
+    @Test
+    void rejectsEntriesOutOfLayout(@TempDir Path tmp) throws IOException {
+        Path broken = tmp.resolve("broken_in.txt");
+        String scan = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "                           \n";
+        Files.write(broken, scan.getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalArgumentException.class, () -> OcrBatchDecoder.decode(broken));
+    }
+
+    /**
+     * An entry with lines of 65535 bytes is too large for a chunk to fit into a mapped segment, and a line longer
+     * than the layout probe has no layout at all. Both are decoded sequentially instead of mapped.
+     */
+    @Test
+    void decodesEntriesTooLargeForAChunk(@TempDir Path tmp) throws IOException {
+        int cells = 65535 / 3;
+        String zeros = " _ ".repeat(cells) + "\n" + "| |".repeat(cells) + "\n" + "|_|".repeat(cells) + "\n"
+                + "   ".repeat(cells) + "\n";
+        Path oversized = tmp.resolve("oversized_in.txt");
+        Files.write(oversized, zeros.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(List.of("0".repeat(cells)), OcrBatchDecoder.decode(oversized));
+
+        Path longLine = tmp.resolve("long_line_in.txt");
+        Files.write(longLine, (" _ ".repeat(OcrScanReader.MAX_LINE_LENGTH) + "\n").getBytes(StandardCharsets.US_ASCII));
+        assertEquals(List.of("malformed scan entry at byte offset 0: line 1 is longer than "
+                        + OcrScanReader.MAX_LINE_LENGTH + " bytes"),
+                OcrBatchDecoder.decode(longLine, ForkJoinPool.commonPool(), null, true));
+        assertThrows(IllegalArgumentException.class, () -> OcrBatchDecoder.decode(longLine));
+    }
+
+    /**
+     * With reporting, a corrupt entry only spoils its own result. A corrupt byte in a scanned line and one in a
+     * separator line are found, too, but a misplaced stroke is not malformed, only unreadable.
+     */
+    @Test
+    void reportsMalformedEntriesAndGoesOn(@TempDir Path tmp) throws IOException {
+        Path broken = tmp.resolve("broken_in.txt");
+        String good = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "                           \n";
+        String terminator = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|x\n"
+                + "                          \n";
+        String foreignByte = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_|\t_|\n"
+                + "                           \n";
+        String badSeparator = good.substring(0, 3 * 28) + "          ~                \n";
+        String misplacedStroke = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_|_ |\n"
+                + "                           \n";
+        Files.write(broken, (good + terminator + foreignByte + badSeparator + misplacedStroke + good)
+                .getBytes(StandardCharsets.US_ASCII));
+        assertEquals(List.of("123456789",
+                        "malformed scan entry at byte offset 112: line 3 has length 28 instead of 27",
+                        "malformed scan entry at byte offset 224: line 3 has the unexpected byte 0x09 at column 25",
+                        "malformed scan entry at byte offset 336: line 4 has the unexpected byte 0x7e at column 11",
+                        "12345678? ERR",
+                        "123456789"),
+                OcrBatchDecoder.decode(broken, ForkJoinPool.commonPool(), null, true));
+    }
+
+    /**
+     * A byte too many or too few shifts all entries after it. The decoder finds them again by their line breaks,
+     * so only the entries with the corrupt lines are malformed, in every chunk.
+     */
+    @Test
+    void resynchronizesAfterShiftedEntry(@TempDir Path tmp) throws Exception {
+        byte[] scan = Files.readAllBytes(resource(US4_INPUT_FILENAME));
+        List<String> us4 = Files.readAllLines(resource(EXPECTED_US4_RESULTS_FILENAME));
+        int entrySize = scan.length / us4.size();
+        int copies = 2000;
+        byte[] large = new byte[scan.length * copies];
+        for (int n = 0; n < copies; n += 1) {
+            System.arraycopy(scan, 0, large, n * scan.length, scan.length);
+        }
+        int inserted = 100 * entrySize + 5;
+        int dropped = 20000 * entrySize + 5;
+        ByteArrayOutputStream corrupt = new ByteArrayOutputStream();
+        corrupt.write(large, 0, inserted);
+        corrupt.write(' ');
+        corrupt.write(large, inserted, dropped - inserted);
+        corrupt.write(large, dropped + 1, large.length - dropped - 1);
+        Path shifted = tmp.resolve("shifted_in.txt");
+        Files.write(shifted, corrupt.toByteArray());
+
+        List<String> expected = new ArrayList<>();
+        for (int n = 0; n < copies; n += 1) {
+            expected.addAll(us4);
+        }
+        expected.set(100, "malformed scan entry at byte offset " + 100 * entrySize
+                + ": line length 28 is not a positive multiple of 3");
+        expected.set(20000, "malformed scan entry at byte offset " + (20000 * entrySize + 1)
+                + ": line length 26 is not a positive multiple of 3");
+        assertEquals(expected, OcrBatchDecoder.decode(shifted, ForkJoinPool.commonPool(), null, true));
+    }
+}
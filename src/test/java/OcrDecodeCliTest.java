@@ -0,0 +1,105 @@
+import de.pruefbit.kata.OcrDecodeCli;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class OcrDecodeCliTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    /**
+     * Several files are decoded one after the other, into one output.
+     */
+    @Test
+    void decodesFilesInOrder() throws Exception {
+        Path input = OcrScanReaderTest.resource(US4_INPUT_FILENAME);
+        List<String> expected = new ArrayList<>(Files.readAllLines(
+                OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME)));
+        expected.addAll(new ArrayList<>(expected));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(0, OcrDecodeCli.run(new String[] {input.toString(), input.toString()}, out));
+        assertEquals(expected, Arrays.asList(out.toString(StandardCharsets.US_ASCII.name()).split("\n")));
+    }
+
+    /**
+     * A malformed entry is reported in the output, the entries after it are still decoded, and the exit status
+     * tells that something was wrong.
+     */
+    @Test
+    void failsOnMalformedFile(@TempDir Path tmp) throws Exception {
+        Path input = tmp.resolve("bad_in.txt");
+        Files.write(input, " _ \n| |\n|\n\n _ \n| |\n|_|\n\n".getBytes(StandardCharsets.US_ASCII));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        assertEquals(1, OcrDecodeCli.run(new String[] {input.toString()}, out));
+        assertEquals(Arrays.asList("malformed scan entry at byte offset 0: line 3 has length 1 instead of 3", "0"),
+                Arrays.asList(out.toString(StandardCharsets.US_ASCII.name()).split("\n")));
+    }
+
+    @Test
+    void failsOnMissingFile(@TempDir Path tmp) throws Exception {
+        Path missing = tmp.resolve("missing_in.txt");
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream systemErr = System.err;
+        System.setErr(new PrintStream(err, true, StandardCharsets.US_ASCII.name()));
+        try {
+            assertEquals(1, OcrDecodeCli.run(new String[] {missing.toString()}, new ByteArrayOutputStream()));
+        } finally {
+            System.setErr(systemErr);
+        }
+        assertEquals(missing + ": no such file\n", err.toString(StandardCharsets.US_ASCII.name())
+                .replace(System.lineSeparator(), "\n"));
+    }
+
+    /**
+     * A file that can not be read is reported, and the files after it are still decoded.
+     */
+    @Test
+    void goesOnAfterUnreadableFile(@TempDir Path tmp) throws Exception {
+        Path input = OcrScanReaderTest.resource(US4_INPUT_FILENAME);
+        Path missing = tmp.resolve("missing_in.txt");
+        List<String> expected = new ArrayList<>(Files.readAllLines(
+                OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME)));
+        expected.addAll(new ArrayList<>(expected));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        PrintStream systemErr = System.err;
+        System.setErr(new PrintStream(err, true, StandardCharsets.US_ASCII.name()));
+        try {
+            assertEquals(1, OcrDecodeCli.run(new String[] {input.toString(), missing.toString(), input.toString()},
+                    out));
+        } finally {
+            System.setErr(systemErr);
+        }
+        assertEquals(expected, Arrays.asList(out.toString(StandardCharsets.US_ASCII.name()).split("\n")));
+        assertEquals(missing + ": no such file\n", err.toString(StandardCharsets.US_ASCII.name())
+                .replace(System.lineSeparator(), "\n"));
+    }
+
+    /**
+     * A wrong argument anywhere stops the run before any file is decoded.
+     */
+    @Test
+    void checksUsageFirst() throws Exception {
+        Path input = OcrScanReaderTest.resource(US4_INPUT_FILENAME);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        PrintStream systemErr = System.err;
+        System.setErr(new PrintStream(new ByteArrayOutputStream(), true, StandardCharsets.US_ASCII.name()));
+        try {
+            assertEquals(2, OcrDecodeCli.run(new String[] {input.toString(), "-x"}, out));
+        } finally {
+            System.setErr(systemErr);
+        }
+        assertEquals(0, out.size());
+    }
+}
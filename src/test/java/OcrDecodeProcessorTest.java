@@ -0,0 +1,161 @@
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.OcrDecodeProcessor;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrDecodeProcessorTest {
+
+    private static final int ENTRIES = 5000;
+
+    /**
+     * Collects all results, with a pause now and then to make the processor wait for demand.
+     */
+    private static final class SlowSubscriber implements Flow.Subscriber<OcrDecodeProcessor.Result> {
+        private final List<OcrDecodeProcessor.Result> results = new ArrayList<>();
+        private final CompletableFuture<List<OcrDecodeProcessor.Result>> done = new CompletableFuture<>();
+        private Flow.Subscription subscription;
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            subscription.request(1);
+        }
+
+        @Override
+        public void onNext(OcrDecodeProcessor.Result item) {
+            results.add(item);
+            if (results.size() % 500 == 0) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            subscription.request(1);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            done.completeExceptionally(throwable);
+        }
+
+        @Override
+        public void onComplete() {
+            done.complete(results);
+        }
+    }
+
+    private static byte[] bytesOf(String[] scanLine) {
+        String separator = " ".repeat(scanLine[0].length());
+        return (scanLine[0] + "\n" + scanLine[1] + "\n" + scanLine[2] + "\n" + separator + "\n")
+                .getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Every entry gets the result the generator expects, with its own sequence number, and the
+     * recovered entries come in the order of their entries.
+     */
+    @Test
+    void publishesAllResultsAndRecoveriesInOrder() throws Exception {
+        ScanFileGenerator generator = new ScanFileGenerator(13L, 70, 10);
+        List<String[]> entries = new ArrayList<>();
+        List<String> expected = new ArrayList<>();
+        for (int n = 0; n < ENTRIES; n += 1) {
+            String[] scanLine = generator.nextScanLine();
+            entries.add(scanLine);
+            expected.add(generator.expectedResult());
+        }
+
+        ExecutorService recoveryExecutor = Executors.newFixedThreadPool(4);
+        ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+        try {
+            OcrDecodeProcessor processor = new OcrDecodeProcessor(recoveryExecutor, 16,
+                    deliveryExecutor, 8);
+            SlowSubscriber subscriber = new SlowSubscriber();
+            processor.subscribe(subscriber);
+            try (SubmissionPublisher<byte[]> upstream = new SubmissionPublisher<>()) {
+                upstream.subscribe(processor);
+                entries.forEach(scanLine -> upstream.submit(bytesOf(scanLine)));
+            }
+
+            List<OcrDecodeProcessor.Result> results = subscriber.done.get(30, TimeUnit.SECONDS);
+            assertEquals(ENTRIES, results.size());
+            String[] bySequence = new String[ENTRIES];
+            long lastRecovered = -1;
+            int recovered = 0;
+            for (OcrDecodeProcessor.Result result : results) {
+                int sequence = (int) result.sequence();
+                bySequence[sequence] = result.result();
+                if (!OcrDecode.isAccountNumberValid(OcrDecode.decode(entries.get(sequence)))) {
+                    assertTrue(sequence > lastRecovered, "recovered results out of order at " + sequence);
+                    lastRecovered = sequence;
+                    recovered += 1;
+                }
+            }
+            assertEquals(expected, List.of(bySequence));
+            assertTrue(recovered > 0);
+        } finally {
+            recoveryExecutor.shutdown();
+            deliveryExecutor.shutdown();
+        }
+    }
+
+    /**
+     * The recovery and the delivery share the common pool, and the subscriber is slow with a small buffer. The
+     * processor publishes without holding its lock, so this must neither deadlock nor stall the recovery.
+     */
+    @Test
+    void sharesThePoolWithTheDelivery() throws Exception {
+        ScanFileGenerator generator = new ScanFileGenerator(17L, 0, 50);
+        List<String> expected = new ArrayList<>();
+        OcrDecodeProcessor processor = new OcrDecodeProcessor(ForkJoinPool.commonPool(), 64,
+                ForkJoinPool.commonPool(), 2);
+        SlowSubscriber subscriber = new SlowSubscriber();
+        processor.subscribe(subscriber);
+        try (SubmissionPublisher<byte[]> upstream = new SubmissionPublisher<>()) {
+            upstream.subscribe(processor);
+            for (int n = 0; n < ENTRIES; n += 1) {
+                upstream.submit(bytesOf(generator.nextScanLine()));
+                expected.add(generator.expectedResult());
+            }
+        }
+
+        List<OcrDecodeProcessor.Result> results = subscriber.done.get(30, TimeUnit.SECONDS);
+        String[] bySequence = new String[ENTRIES];
+        for (OcrDecodeProcessor.Result result : results) {
+            bySequence[(int) result.sequence()] = result.result();
+        }
+        assertEquals(expected, List.of(bySequence));
+    }
+
+    @Test
+    void endsWithErrorOnIncompleteCells() throws Exception {
+        try (SubmissionPublisher<byte[]> upstream = new SubmissionPublisher<>()) {
+            OcrDecodeProcessor processor = new OcrDecodeProcessor(ForkJoinPool.commonPool(), 4);
+            SlowSubscriber subscriber = new SlowSubscriber();
+            processor.subscribe(subscriber);
+            upstream.subscribe(processor);
+            upstream.submit(" _ \n| |\n|_|\n\n".getBytes(StandardCharsets.US_ASCII));
+            upstream.submit(" _\n| |\n".getBytes(StandardCharsets.US_ASCII));
+            ExecutionException e = assertThrows(ExecutionException.class,
+                    () -> subscriber.done.get(30, TimeUnit.SECONDS));
+            assertTrue(e.getCause() instanceof IllegalArgumentException);
+        }
+    }
+}
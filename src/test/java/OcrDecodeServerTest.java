@@ -0,0 +1,137 @@
+import de.pruefbit.kata.OcrDecodeServer;
+import de.pruefbit.kata.OcrScanReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrDecodeServerTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    private static List<String> roundTrip(int port, byte[] scan) throws IOException {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), port)) {
+            OutputStream out = socket.getOutputStream();
+            out.write(scan);
+            out.flush();
+            socket.shutdownOutput();
+            BufferedReader in = new BufferedReader(
+                    new InputStreamReader(socket.getInputStream(), StandardCharsets.US_ASCII));
+            return in.lines().collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Sending the User Story 4 input file must give back exactly the expected output file, in order.
+     */
+    @Test
+    void answersLikeUserStory4() throws Exception {
+        byte[] scan = Files.readAllBytes(OcrScanReaderTest.resource(US4_INPUT_FILENAME));
+        List<String> expected = Files.readAllLines(OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME));
+        try (OcrDecodeServer server = OcrDecodeServer.start(0)) {
+            assertEquals(expected, roundTrip(server.getPort(), scan));
+            assertEquals(expected.size(), server.entryCount());
+            assertTrue(server.batchCount() >= 1);
+            assertTrue(server.batchLatencyNanos(99) > 0);
+        }
+    }
+
+    /**
+     * Many clients at the same time must each get their own results, in their own order.
+     */
+    @Test
+    void servesConcurrentConnections() throws Exception {
+        byte[] scan = Files.readAllBytes(OcrScanReaderTest.resource(US4_INPUT_FILENAME));
+        List<String> expected = Files.readAllLines(OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME));
+        int clients = 64;
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try (OcrDecodeServer server = OcrDecodeServer.start(0)) {
+            List<Future<List<String>>> answers = new ArrayList<>();
+            for (int n = 0; n < clients; n += 1) {
+                answers.add(executor.submit(() -> roundTrip(server.getPort(), scan)));
+            }
+            for (Future<List<String>> answer : answers) {
+                assertEquals(expected, answer.get());
+            }
+            assertEquals(clients, server.connectionCount());
+            assertEquals((long) clients * expected.size(), server.entryCount());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * A malformed entry is answered with an error line, after the results of the entries before it.
+     */
+    @Test
+    void answersMalformedEntryWithError() throws Exception {
+        String scan = " _  _  _  _  _  _  _  _  _ \n"
+                + "| || || || || || || || || |\n"
+                + "|_||_||_||_||_||_||_||_||_|\n"
+                + "\n"
+                + " _  _ \n"
+                + "| || |\n"
+                + "|_|\n"
+                + "\n";
+        try (OcrDecodeServer server = OcrDecodeServer.start(0)) {
+            List<String> answer = roundTrip(server.getPort(), scan.getBytes(StandardCharsets.US_ASCII));
+            assertEquals(2, answer.size());
+            assertEquals("000000000", answer.get(0));
+            assertTrue(answer.get(1).startsWith("ERROR malformed scan entry at byte offset 85"));
+        }
+    }
+
+    /**
+     * A client can not make the server buffer a line without end, nor send more than the limit of a connection.
+     * Both are answered with an error line, which the client gets although it went on sending.
+     */
+    @Test
+    void limitsLinesAndBytesOfAConnection() throws Exception {
+        byte[] scan = Files.readAllBytes(OcrScanReaderTest.resource(US4_INPUT_FILENAME));
+        List<String> expected = Files.readAllLines(OcrScanReaderTest.resource(EXPECTED_US4_RESULTS_FILENAME));
+        try (OcrDecodeServer server = new OcrDecodeServer(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0),
+                OcrDecodeServer.newConnectionExecutor(), null, 1000)) {
+            byte[] longLine = "_".repeat(OcrScanReader.MAX_LINE_LENGTH + 1000).getBytes(StandardCharsets.US_ASCII);
+            assertEquals(List.of("ERROR malformed scan entry at byte offset 0: line 1 is longer than "
+                    + OcrScanReader.MAX_LINE_LENGTH + " bytes"), roundTrip(server.getPort(), longLine));
+
+            List<String> answer = roundTrip(server.getPort(), scan);
+            assertEquals(expected.subList(0, 1000 / 112), answer.subList(0, answer.size() - 1));
+            assertEquals("ERROR connection sent more than 1000 bytes", answer.get(answer.size() - 1));
+        }
+    }
+
+    /**
+     * Closing the server ends a connection whose task is blocked waiting for the client.
+     */
+    @Test
+    void closeEndsWaitingConnections() throws Exception {
+        OcrDecodeServer server = OcrDecodeServer.start(0);
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(), server.getPort())) {
+            socket.setSoTimeout(5000);
+            while (server.connectionCount() == 0) {
+                Thread.sleep(1);
+            }
+            server.close();
+            assertEquals(-1, socket.getInputStream().read());
+        }
+        assertEquals(0, server.acceptErrorCount());
+    }
+}
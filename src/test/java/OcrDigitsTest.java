@@ -8,9 +8,12 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.MethodOrderer.*;
 
@@ -150,6 +153,7 @@ class OcrDigitsTest {
             "000000057, false",
             "1?3456789, false",
             "?????????, false",
+            "'', false",
     })
     void checksumValidation(String candidate, boolean expectation) {
         assertEquals(expectation, OcrDecode.isAccountNumberValid(candidate));
@@ -206,4 +210,54 @@ class OcrDigitsTest {
         }
         fileUnderTest.close();
     }
+
+    /**
+     * Decoding raw byte rows, either as three arrays or from one contiguous buffer, shall give the same
+     * digits as decoding the strings.
+     */
+    @ParameterizedTest
+    @ValueSource(strings = { US1_INPUT_FILENAME, US3_INPUT_FILENAME, US4_INPUT_FILENAME })
+    void bulkDecodeOfBytesMatchesStrings(String filename) throws IOException {
+        BufferedReader fileUnderTest = open(filename);
+        String[] scanLine;
+        while ((scanLine = readNextScanLine(fileUnderTest)) != null) {
+            byte[] row0 = scanLine[0].getBytes(StandardCharsets.US_ASCII);
+            byte[] row1 = scanLine[1].getBytes(StandardCharsets.US_ASCII);
+            byte[] row2 = scanLine[2].getBytes(StandardCharsets.US_ASCII);
+            byte[] buffer = (scanLine[0] + "\n" + scanLine[1] + "\n" + scanLine[2] + "\n")
+                    .getBytes(StandardCharsets.US_ASCII);
+            String expected = OcrDecode.decode(scanLine);
+            assertEquals(expected, OcrDecode.decode(row0, row1, row2));
+            assertEquals(expected, OcrDecode.decode(buffer, 0, 28, 27));
+        }
+        fileUnderTest.close();
+    }
+
+    /**
+     * Lines may be wider than 27 characters, and the checksum then works on all digits:
+     * the leftmost of n digits is multiplied by n.
+     */
+    @Test
+    void decodeAndValidateWideLines() {
+        String[] scanLine = {
+                "    _  _     _  _  _  _  _  _     _  _     _  _  _  _  _ ",
+                "  | _| _||_||_ |_   ||_||_|| |  | _| _||_||_ |_   ||_||_|",
+                "  ||_  _|  | _||_|  ||_| _||_|  ||_  _|  | _||_|  ||_| _|"
+        };
+        String decoded = OcrDecode.decode(scanLine);
+        assertEquals("1234567890123456789", decoded);
+        assertEquals(decoded, OcrDecode.decode(scanLine[0].getBytes(StandardCharsets.US_ASCII),
+                scanLine[1].getBytes(StandardCharsets.US_ASCII), scanLine[2].getBytes(StandardCharsets.US_ASCII)));
+        assertTrue(OcrDecode.isAccountNumberValid("0000000000000000051"));
+        assertFalse(OcrDecode.isAccountNumberValid(decoded));
+    }
+
+    @Test
+    void rejectsIncompleteCellsOfBytes() {
+        byte[] row = "    _  _ ".getBytes(StandardCharsets.US_ASCII);
+        byte[] shortRow = "    _  _".getBytes(StandardCharsets.US_ASCII);
+        assertThrows(IllegalArgumentException.class, () -> OcrDecode.decode(shortRow, shortRow, shortRow));
+        assertThrows(IllegalArgumentException.class, () -> OcrDecode.decode(row, shortRow, row));
+        assertThrows(IllegalArgumentException.class, () -> OcrDecode.decode(row, 0, 10, 8));
+    }
 }
@@ -0,0 +1,118 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.OcrMetrics;
+import de.pruefbit.kata.OcrScanReader;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrMetricsTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+
+    private static final String[] VALID_ENTRY = {
+            "    _  _     _  _  _  _  _ ",
+            "  | _| _||_||_ |_   ||_||_|",
+            "  ||_  _|  | _||_|  ||_| _|"
+    };
+
+    @AfterEach
+    void switchOff() {
+        OcrDecode.setMetrics(null);
+    }
+
+    /**
+     * The User Story 4 input file has 12 entries, 5 of them are ambiguous, and all others are either valid
+     * right away, or can be recovered.
+     */
+    @Test
+    void countsOutcomesOfUserStory4() throws Exception {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        Path input = Paths.get(ClassLoader.getSystemResource(US4_INPUT_FILENAME).toURI());
+        try (Stream<String> results = OcrScanReader.open(input).results()) {
+            assertEquals(12, results.count());
+        }
+        OcrMetrics.Snapshot snapshot = metrics.snapshot();
+        assertEquals(12, snapshot.decoded());
+        assertEquals(5, snapshot.amb());
+        assertEquals(0, snapshot.err());
+        assertEquals(0, snapshot.ill());
+        assertEquals(12, snapshot.valid() + snapshot.recovered() + snapshot.amb());
+        assertEquals(12 - snapshot.valid(), snapshot.recoverErrorAttempts() + snapshot.recoverUnreadableAttempts());
+        assertEquals(12, metrics.count(OcrMetrics.Stage.DECODE));
+        assertEquals(12, metrics.count(OcrMetrics.Stage.CHECKSUM));
+        assertTrue(snapshot.p99Nanos(OcrMetrics.Stage.DECODE) >= snapshot.p50Nanos(OcrMetrics.Stage.DECODE));
+    }
+
+    @Test
+    void countsErrAndIllMarks() {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        OcrDecode.markErrOrIll("664371495");
+        OcrDecode.markErrOrIll("86110??36");
+        assertEquals(1, metrics.getErr());
+        assertEquals(1, metrics.getIll());
+        metrics.reset();
+        assertEquals(0, metrics.getErr());
+    }
+
+    @Test
+    void recordsNothingWhenSwitchedOff() {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        OcrDecode.setMetrics(null);
+        assertNull(OcrDecode.getMetrics());
+        DecodeResult.evaluate(VALID_ENTRY);
+        assertEquals(0, metrics.getValid());
+    }
+
+    /**
+     * Only the checksum stage of the pipeline counts valid entries, not every check of an account number.
+     */
+    @Test
+    void countsValidEntriesOfThePipelineOnly() {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        assertTrue(OcrDecode.isAccountNumberValid("345882865"));
+        assertEquals(0, metrics.getValid());
+        assertEquals(0, metrics.count(OcrMetrics.Stage.CHECKSUM));
+        DecodeResult.evaluate(VALID_ENTRY);
+        assertEquals(1, metrics.getValid());
+    }
+
+    /**
+     * Only the decode stage of the pipeline is timed, not every decode of an entry, e.g. by a test oracle.
+     */
+    @Test
+    void timesDecodesOfThePipelineOnly() {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        OcrDecode.decode(VALID_ENTRY);
+        OcrDecode.decode(VALID_ENTRY[0].getBytes(StandardCharsets.US_ASCII),
+                VALID_ENTRY[1].getBytes(StandardCharsets.US_ASCII), VALID_ENTRY[2].getBytes(StandardCharsets.US_ASCII));
+        assertEquals(0, metrics.count(OcrMetrics.Stage.DECODE));
+        DecodeResult.evaluate(VALID_ENTRY);
+        assertEquals(1, metrics.count(OcrMetrics.Stage.DECODE));
+    }
+
+    @Test
+    void isVisibleThroughJmx() throws Exception {
+        OcrMetrics metrics = new OcrMetrics();
+        OcrDecode.setMetrics(metrics);
+        ObjectName name = metrics.register("test");
+        DecodeResult.evaluate(VALID_ENTRY);
+        assertEquals(1L, ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Valid"));
+        ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+    }
+}
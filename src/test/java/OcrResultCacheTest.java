@@ -0,0 +1,103 @@
+import de.pruefbit.kata.OcrBatchDecoder;
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.OcrResultCache;
+import de.pruefbit.kata.OcrScanReader;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrResultCacheTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    /**
+     * Reading the same file twice through the same cache must give the same results, and the second time
+     * all of them must come from the cache.
+     */
+    @Test
+    void repeatedEntriesAreHits() throws Exception {
+        Path input = Paths.get(ClassLoader.getSystemResource(US4_INPUT_FILENAME).toURI());
+        List<String> expected = Files.readAllLines(
+                Paths.get(ClassLoader.getSystemResource(EXPECTED_US4_RESULTS_FILENAME).toURI()));
+        OcrResultCache cache = new OcrResultCache(1000);
+        for (int round = 0; round < 2; round += 1) {
+            OcrScanReader reader = OcrScanReader.open(input);
+            reader.setCache(cache);
+            try (Stream<String> results = reader.results()) {
+                assertEquals(expected, results.collect(Collectors.toList()));
+            }
+        }
+        assertEquals(12, cache.missCount());
+        assertEquals(12, cache.hitCount());
+        assertEquals(12, cache.size());
+    }
+
+    @Test
+    void evaluatesLikeThePipeline() {
+        ScanFileGenerator generator = new ScanFileGenerator(3L, 70, 10);
+        OcrResultCache cache = new OcrResultCache(100);
+        for (int n = 0; n < 1000; n += 1) {
+            String[] scanLine = generator.nextScanLine();
+            String expected = OcrDecode.decode(scanLine);
+            if (!OcrDecode.isAccountNumberValid(expected)) {
+                expected = OcrDecode.tryRecoverErrOrIll(scanLine, expected);
+            }
+            String cached = cache.evaluate(scanLine);
+            assertEquals(expected, cached);
+            assertSame(cached, cache.evaluate(scanLine));
+        }
+        assertTrue(cache.size() <= 100);
+    }
+
+    /**
+     * The maximum size is shared out among the segments, also when it is not a multiple of their number.
+     */
+    @Test
+    void keepsExactlyTheMaximumSize() {
+        ScanFileGenerator generator = new ScanFileGenerator(8L, 100, 0);
+        OcrResultCache cache = new OcrResultCache(21);
+        for (int n = 0; n < 2000; n += 1) {
+            cache.evaluate(generator.nextScanLine());
+        }
+        assertEquals(21, cache.size());
+        assertThrows(IllegalArgumentException.class, () -> new OcrResultCache(OcrResultCache.MINIMUM_SIZE - 1));
+    }
+
+    @Test
+    void isSharedByParallelDecoding(@TempDir Path tmp) throws Exception {
+        Path input = tmp.resolve("repeated_in.txt");
+        new ScanFileGenerator(5L, 85, 5).generate(input, 500);
+        byte[] scan = Files.readAllBytes(input);
+        List<String> expected = new ArrayList<>();
+        List<String> once = Files.readAllLines(tmp.resolve("repeated_out.txt"));
+        Path repeated = tmp.resolve("many_in.txt");
+        try (OutputStream out = Files.newOutputStream(repeated)) {
+            for (int n = 0; n < 40; n += 1) {
+                out.write(scan);
+                expected.addAll(once);
+            }
+        }
+        OcrResultCache cache = new OcrResultCache(10_000);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        assertEquals(expected, OcrBatchDecoder.decode(repeated, pool, cache));
+        pool.shutdown();
+        assertEquals(20_000, cache.hitCount() + cache.missCount());
+        assertTrue(cache.hitCount() >= 19_000);
+    }
+}
@@ -0,0 +1,136 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrResultReader;
+import de.pruefbit.kata.OcrResultWriter;
+import de.pruefbit.kata.OcrScanReader;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrResultFileTest {
+
+    private static final int ENTRIES = 3000;
+
+    private static Path writeResults(Path tmp) throws IOException {
+        Path scanFile = tmp.resolve("scan_in.txt");
+        new ScanFileGenerator(5L, 85, 5).generate(scanFile, ENTRIES);
+        Path resultFile = tmp.resolve("scan.ocrr");
+        try (OcrScanReader reader = OcrScanReader.open(scanFile);
+             OcrResultWriter writer = OcrResultWriter.create(resultFile)) {
+            while (reader.hasNext()) {
+                writer.write(reader.nextResult(), reader.entryOffset());
+            }
+            assertEquals(ENTRIES, writer.count());
+        }
+        return resultFile;
+    }
+
+    /**
+     * Every entry can be read back by its number, with the result of the text output and its source offset.
+     */
+    @Test
+    void readsBackEveryEntry(@TempDir Path tmp) throws IOException {
+        Path resultFile = writeResults(tmp);
+        List<String> expected = Files.readAllLines(tmp.resolve("scan_out.txt"));
+        assertEquals(24 + 8 * ENTRIES + 16 * 12 + 16, Files.size(resultFile));
+        try (OcrResultReader reader = OcrResultReader.open(resultFile)) {
+            assertEquals(ENTRIES, reader.count());
+            for (int n = ENTRIES - 1; n >= 0; n -= 1) {
+                assertEquals(expected.get(n), reader.result(n).toString());
+                assertEquals(112L * n, reader.sourceOffset(n));
+            }
+            assertThrows(IndexOutOfBoundsException.class, () -> reader.result(ENTRIES));
+        }
+    }
+
+    /**
+     * Looking up a status gives exactly the entries with that status, also within a range.
+     */
+    @Test
+    void findsEntriesByStatus(@TempDir Path tmp) throws IOException {
+        Path resultFile = writeResults(tmp);
+        try (OcrResultReader reader = OcrResultReader.open(resultFile)) {
+            for (DecodeResult.Status status : DecodeResult.Status.values()) {
+                List<Long> expected = LongStream.range(0, ENTRIES)
+                        .filter(n -> reader.result(n).status() == status)
+                        .boxed().collect(Collectors.toList());
+                assertEquals(expected, reader.entriesWithStatus(status).boxed().collect(Collectors.toList()));
+                List<Long> inRange = expected.stream()
+                        .filter(n -> n >= 300 && n < 2000).collect(Collectors.toList());
+                assertEquals(inRange,
+                        reader.entriesWithStatus(status, 300, 2000).boxed().collect(Collectors.toList()));
+            }
+            assertTrue(reader.entriesWithStatus(DecodeResult.Status.AMB).count() > 0);
+        }
+    }
+
+    @Test
+    void rejectsIncompleteFile(@TempDir Path tmp) throws IOException {
+        Path resultFile = writeResults(tmp);
+        byte[] bytes = Files.readAllBytes(resultFile);
+        Path truncated = tmp.resolve("truncated.ocrr");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 24));
+        assertThrows(IOException.class, () -> OcrResultReader.open(truncated));
+    }
+
+    /**
+     * A writer that died before close() leaves the header open and no index. All complete records can be recovered.
+     */
+    @Test
+    void recoversFileOfCrashedWriter(@TempDir Path tmp) throws IOException {
+        Path resultFile = writeResults(tmp);
+        byte[] bytes = Files.readAllBytes(resultFile);
+        int records = 2000;
+        byte[] crashed = Arrays.copyOf(bytes, 24 + 8 * records + 5);
+        Arrays.fill(crashed, 16, 24, (byte) 0xff);
+        Path crashedFile = tmp.resolve("crashed.ocrr");
+        Files.write(crashedFile, crashed);
+        assertThrows(IOException.class, () -> OcrResultReader.open(crashedFile));
+        try (OcrResultReader complete = OcrResultReader.open(resultFile);
+             OcrResultReader recovered = OcrResultReader.recover(crashedFile)) {
+            assertEquals(records, recovered.count());
+            for (int n = 0; n < records; n += 1) {
+                assertEquals(complete.packedResult(n), recovered.packedResult(n));
+                assertEquals(complete.sourceOffset(n), recovered.sourceOffset(n));
+            }
+            for (DecodeResult.Status status : DecodeResult.Status.values()) {
+                assertEquals(complete.entriesWithStatus(status, 0, records).boxed().collect(Collectors.toList()),
+                        recovered.entriesWithStatus(status).boxed().collect(Collectors.toList()));
+            }
+        }
+    }
+
+    /**
+     * Once the number of records is committed, the index that follows them is not taken for records.
+     */
+    @Test
+    void recoversFileWithIncompleteIndex(@TempDir Path tmp) throws IOException {
+        Path resultFile = writeResults(tmp);
+        byte[] bytes = Files.readAllBytes(resultFile);
+        Path truncated = tmp.resolve("truncated.ocrr");
+        Files.write(truncated, Arrays.copyOf(bytes, bytes.length - 24));
+        try (OcrResultReader recovered = OcrResultReader.recover(truncated)) {
+            assertEquals(ENTRIES, recovered.count());
+            assertEquals(112L * (ENTRIES - 1), recovered.sourceOffset(ENTRIES - 1));
+        }
+    }
+
+    @Test
+    void rejectsEntriesOutOfOrder(@TempDir Path tmp) throws IOException {
+        try (OcrResultWriter writer = OcrResultWriter.create(tmp.resolve("bad.ocrr"))) {
+            writer.write(0L, 112);
+            assertThrows(IllegalArgumentException.class, () -> writer.write(0L, 0));
+        }
+    }
+}
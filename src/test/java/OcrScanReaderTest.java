@@ -0,0 +1,210 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrScanReader;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class OcrScanReaderTest {
+
+    private static final String US4_INPUT_FILENAME = "use_case_4_in.txt";
+    private static final String EXPECTED_US4_RESULTS_FILENAME = "use_case_4_out.txt";
+
+    static Path resource(String fn) throws URISyntaxException {
+        return Paths.get(ClassLoader.getSystemResource(fn).toURI());
+    }
+
+    /**
+     * The reader runs the whole User Story 4 pipeline, so reading the User Story 4 input file must give
+     * exactly the expected output file.
+     */
+    @Test
+    void readsWholeFileLikeUserStory4() throws Exception {
+        List<String> expected = Files.readAllLines(resource(EXPECTED_US4_RESULTS_FILENAME));
+        try (Stream<String> results = OcrScanReader.open(resource(US4_INPUT_FILENAME)).results()) {
+            assertEquals(expected, results.collect(Collectors.toList()));
+        }
+    }
+
+    /**
+     * Windows line breaks and a missing separator line after the last entry shall make no difference.
+     */
+    @Test
+    void toleratesCrLfAndMissingLastSeparator() throws IOException {
+        String scan = "    _  _     _  _  _  _  _ \r\n"
+                + "  | _| _||_||_ |_   ||_||_|\r\n"
+                + "  ||_  _|  | _||_|  ||_| _|\r\n"
+                + "                           \r\n"
+                + " _  _  _  _  _  _  _  _    \r\n"
+                + "| || || || || || || ||_   |\r\n"
+                + "|_||_||_||_||_||_||_| _|  |";
+        OcrScanReader reader = reader(scan);
+        assertEquals("123456789", reader.next());
+        assertEquals("000000051", reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    @Test
+    void rejectsShortLines() {
+        String scan = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "\n";
+        assertThrows(IllegalArgumentException.class, reader(scan)::next);
+    }
+
+    /**
+     * The strict check finds nothing wrong with a well-formed file, so its results stay the same.
+     */
+    @Test
+    void reportingModeAcceptsWellFormedFile() throws Exception {
+        List<String> expected = Files.readAllLines(resource(EXPECTED_US4_RESULTS_FILENAME));
+        try (OcrScanReader reader = OcrScanReader.open(resource(US4_INPUT_FILENAME))) {
+            reader.setReportMalformed(true);
+            try (Stream<String> results = reader.results()) {
+                assertEquals(expected, results.collect(Collectors.toList()));
+            }
+            assertEquals(0, reader.malformedCount());
+        }
+    }
+
+    /**
+     * Every malformed entry gives a result with its byte offset and the reason, and the entries around it are
+     * still decoded.
+     */
+    @Test
+    void reportsMalformedEntriesAndGoesOn() {
+        String good = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "                           \n";
+        String shortLine = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "                           \n";
+        String foreignByte = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  |x_| _|\n"
+                + "                           \n";
+        String badSeparator = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "  _                        \n";
+        String badWidth = "    _  _     _  _  _  _  _\n"
+                + "  | _| _||_||_ |_   ||_||_\n"
+                + "  ||_  _|  | _||_|  ||_| _\n"
+                + "                           \n";
+        String incomplete = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n";
+        OcrScanReader reader = reader(good + shortLine + foreignByte + good + badSeparator + badWidth + incomplete);
+        reader.setReportMalformed(true);
+        assertEquals("123456789", reader.next());
+        assertEquals("malformed scan entry at byte offset 112: line 2 has length 24 instead of 27", reader.next());
+        assertEquals("malformed scan entry at byte offset 221: line 3 has the unexpected byte 0x78 at column 22",
+                reader.next());
+        assertEquals("123456789", reader.next());
+        DecodeResult separator = reader.nextResult();
+        assertEquals(DecodeResult.Status.MALFORMED, separator.status());
+        assertEquals(445, separator.malformedOffset());
+        assertEquals("line 4 has the unexpected byte 0x5f at column 3", separator.malformedReason());
+        assertEquals("malformed scan entry at byte offset 557: line length 26 is not a positive multiple of 3",
+                reader.next());
+        assertEquals("malformed scan entry at byte offset 666: incomplete entry of 2 lines", reader.next());
+        assertFalse(reader.hasNext());
+        assertEquals(5, reader.malformedCount());
+    }
+
+    /**
+     * Blank lines at the end of the input are not an entry.
+     */
+    @Test
+    void reportingModeIgnoresTrailingBlankLines() {
+        String scan = "    _  _     _  _  _  _  _ \r\n"
+                + "  | _| _||_||_ |_   ||_||_|\r\n"
+                + "  ||_  _|  | _||_|  ||_| _|\r\n"
+                + "                           \r\n"
+                + "\r\n"
+                + "   \r\n";
+        OcrScanReader reader = reader(scan);
+        reader.setReportMalformed(true);
+        assertEquals("123456789", reader.next());
+        assertFalse(reader.hasNext());
+    }
+
+    /**
+     * A corrupt input with a huge line must neither make the buffer grow without bound nor stop the reader. The
+     * long line makes its entry malformed, and the entry after it is decoded again.
+     */
+    @Test
+    void skipsLinesLongerThanTheMaximum() throws IOException {
+        String good = "    _  _     _  _  _  _  _ \n"
+                + "  | _| _||_||_ |_   ||_||_|\n"
+                + "  ||_  _|  | _||_|  ||_| _|\n"
+                + "                           \n";
+        long longLine = 64L << 20;
+        OcrScanReader reader = new OcrScanReader(new SequenceInputStream(
+                new ByteArrayInputStream(good.getBytes(StandardCharsets.US_ASCII)),
+                new SequenceInputStream(new UnderscoreStream(longLine),
+                        new ByteArrayInputStream(("\n" + good).getBytes(StandardCharsets.US_ASCII)))));
+        reader.setReportMalformed(true);
+        assertEquals("123456789", reader.next());
+        assertEquals("malformed scan entry at byte offset 112: line 1 is longer than "
+                + OcrScanReader.MAX_LINE_LENGTH + " bytes", reader.next());
+        assertEquals(112 + longLine + 1, reader.endOffset());
+        assertEquals("123456789", reader.next());
+        assertFalse(reader.hasNext());
+
+        OcrScanReader strict = new OcrScanReader(new UnderscoreStream(longLine));
+        assertThrows(IllegalArgumentException.class, strict::hasNext);
+    }
+
+    /**
+     * A stream of underscores, without a line break, that does not hold its bytes in memory.
+     */
+    private static final class UnderscoreStream extends InputStream {
+        private long remaining;
+
+        UnderscoreStream(long length) {
+            this.remaining = length;
+        }
+
+        @Override
+        public int read() {
+            if (remaining == 0) {
+                return -1;
+            }
+            remaining -= 1;
+            return '_';
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining == 0) {
+                return -1;
+            }
+            int count = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + count, (byte) '_');
+            remaining -= count;
+            return count;
+        }
+    }
+
+    private static OcrScanReader reader(String scan) {
+        return new OcrScanReader(new ByteArrayInputStream(scan.getBytes(StandardCharsets.US_ASCII)));
+    }
+}
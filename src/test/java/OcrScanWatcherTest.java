@@ -0,0 +1,138 @@
+import de.pruefbit.kata.OcrScanWatcher;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class OcrScanWatcherTest {
+
+    private static final int ENTRIES = 1000;
+    private static final int ENTRY_SIZE = 4 * 28;
+
+    /**
+     * Writes a complete scan file and its expected results to "source", and returns the scan bytes.
+     */
+    private static byte[] generate(Path source) throws IOException {
+        Files.createDirectories(source);
+        new ScanFileGenerator(3L, 85, 5).generate(source.resolve("scan_in.txt"), ENTRIES);
+        return Files.readAllBytes(source.resolve("scan_in.txt"));
+    }
+
+    private static void append(Path file, byte[] bytes, int from, int to) throws IOException {
+        Files.write(file, Arrays.copyOfRange(bytes, from, to),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * A file that grows in pieces, even in the middle of entries, gives the same results as the whole file, and
+     * every entry is decoded only once. A new watcher resumes from the checkpoint.
+     */
+    @Test
+    void decodesOnlyAppendedWholeEntries(@TempDir Path tmp) throws IOException {
+        byte[] scan = generate(tmp.resolve("source"));
+        Path scans = Files.createDirectory(tmp.resolve("scans"));
+        Path out = Files.createDirectory(tmp.resolve("out"));
+        Path file = scans.resolve("scan_in.txt");
+
+        int[] cuts = {0, 50, 300 * ENTRY_SIZE + 17, 300 * ENTRY_SIZE + 90, 700 * ENTRY_SIZE, scan.length};
+        long total = 0;
+        for (int n = 1; n < cuts.length; n += 1) {
+            append(file, scan, cuts[n - 1], cuts[n]);
+            try (OcrScanWatcher watcher = new OcrScanWatcher(scans, out, "*_in.txt")) {
+                long count = watcher.process(file);
+                assertEquals(cuts[n] / ENTRY_SIZE - cuts[n - 1] / ENTRY_SIZE, count);
+                total += count;
+                assertEquals(0, watcher.processAll());
+            }
+        }
+        assertEquals(ENTRIES, total);
+        assertArrayEquals(Files.readAllBytes(tmp.resolve("source").resolve("scan_out.txt")),
+                Files.readAllBytes(out.resolve("scan_out.txt")));
+    }
+
+    /**
+     * Results written after the last checkpoint, e.g. before a crash, are dropped and written again.
+     */
+    @Test
+    void cutsOutputBackToCheckpoint(@TempDir Path tmp) throws IOException {
+        byte[] scan = generate(tmp.resolve("source"));
+        Path scans = Files.createDirectory(tmp.resolve("scans"));
+        Path file = scans.resolve("scan_in.txt");
+        append(file, scan, 0, 400 * ENTRY_SIZE);
+        try (OcrScanWatcher watcher = new OcrScanWatcher(scans, scans, "*_in.txt")) {
+            assertEquals(400, watcher.process(file));
+            append(watcher.outputFor(file), "123456789 ERR\n".getBytes(), 0, 14);
+            append(file, scan, 400 * ENTRY_SIZE, scan.length);
+            assertEquals(ENTRIES - 400, watcher.process(file));
+        }
+        assertArrayEquals(Files.readAllBytes(tmp.resolve("source").resolve("scan_out.txt")),
+                Files.readAllBytes(scans.resolve("scan_out.txt")));
+    }
+
+    /**
+     * An output file that was cut shorter than its checkpoint must not get a hole, but the results from the first
+     * entry without a complete result line on.
+     */
+    @Test
+    void goesOnAfterOutputShorterThanCheckpoint(@TempDir Path tmp) throws IOException {
+        byte[] scan = generate(tmp.resolve("source"));
+        Path scans = Files.createDirectory(tmp.resolve("scans"));
+        Path file = scans.resolve("scan_in.txt");
+        append(file, scan, 0, 400 * ENTRY_SIZE);
+        try (OcrScanWatcher watcher = new OcrScanWatcher(scans, scans, "*_in.txt")) {
+            assertEquals(400, watcher.process(file));
+            Path output = watcher.outputFor(file);
+            int cut = String.join("\n", Files.readAllLines(output).subList(0, 100)).length() + 1 + 5;
+            try (FileChannel channel = FileChannel.open(output, StandardOpenOption.WRITE)) {
+                channel.truncate(cut);
+            }
+            append(file, scan, 400 * ENTRY_SIZE, scan.length);
+            assertEquals(ENTRIES - 100, watcher.process(file));
+        }
+        assertArrayEquals(Files.readAllBytes(tmp.resolve("source").resolve("scan_out.txt")),
+                Files.readAllBytes(scans.resolve("scan_out.txt")));
+    }
+
+    /**
+     * Watching a directory picks up files that appear and grow while it runs.
+     */
+    @Test
+    void watchesDirectory(@TempDir Path tmp) throws Exception {
+        byte[] scan = generate(tmp.resolve("source"));
+        Path scans = Files.createDirectory(tmp.resolve("scans"));
+        Path output = scans.resolve("scan_out.txt");
+        Thread thread;
+        try (OcrScanWatcher watcher = new OcrScanWatcher(scans, scans, "*_in.txt")) {
+            thread = new Thread(() -> {
+                try {
+                    watcher.run();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+            thread.start();
+            append(scans.resolve("scan_in.txt"), scan, 0, 10 * ENTRY_SIZE + 5);
+            append(scans.resolve("scan_in.txt"), scan, 10 * ENTRY_SIZE + 5, 20 * ENTRY_SIZE);
+            List<String> expected = Files.readAllLines(tmp.resolve("source").resolve("scan_out.txt")).subList(0, 20);
+            long deadline = System.currentTimeMillis() + 10_000;
+            while (System.currentTimeMillis() < deadline
+                    && !(Files.exists(output) && Files.readAllLines(output).size() >= 20)) {
+                Thread.sleep(20);
+            }
+            assertEquals(expected, Files.readAllLines(output));
+        }
+        thread.join(5_000);
+        assertTrue(!thread.isAlive());
+    }
+}
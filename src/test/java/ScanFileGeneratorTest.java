@@ -0,0 +1,116 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrDecode;
+import de.pruefbit.kata.OcrScanReader;
+import de.pruefbit.kata.ScanFileGenerator;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScanFileGeneratorTest {
+
+    /**
+     * The expected results are worked out from the generated account numbers and their damage, not by the
+     * decoder, so the reader must give the same results for the generated scan file.
+     */
+    @Test
+    void expectedResultsMatchTheScanFile(@TempDir Path tmp) throws IOException {
+        Path input = tmp.resolve("soak_in.txt");
+        new ScanFileGenerator(42L, 60, 20).generate(input, 5000);
+        List<String> expected = Files.readAllLines(tmp.resolve("soak_out.txt"));
+        assertEquals(5000, expected.size());
+        assertEquals(4 * 5000 * 28, Files.size(input));
+        try (Stream<String> results = OcrScanReader.open(input).results()) {
+            assertEquals(expected, results.collect(Collectors.toList()));
+        }
+        for (String suffix : new String[] {" ILL", " ERR", " AMB"}) {
+            assertTrue(expected.stream().anyMatch(result -> result.endsWith(suffix)));
+        }
+        assertTrue(expected.stream().anyMatch(result -> result.length() == 9));
+    }
+
+    @Test
+    void expectedResultOfEachEntry() {
+        ScanFileGenerator generator = new ScanFileGenerator(3L, 0, 50);
+        for (int n = 0; n < 2000; n += 1) {
+            String[] scanLine = generator.nextScanLine();
+            assertEquals(generator.expectedResult(), DecodeResult.evaluate(scanLine).toString());
+        }
+    }
+
+    /**
+     * An ERR entry is a good account number with one cell changed into another digit by one stroke, so all of its
+     * digits are readable, its checksum is bad, and the original is always one of its repairs.
+     */
+    @Test
+    void errEntriesAreOneStrokeFromAGoodAccountNumber() {
+        ScanFileGenerator generator = new ScanFileGenerator(5L, 0, 100);
+        int ambiguous = 0;
+        for (int n = 0; n < 2000; n += 1) {
+            String digits = OcrDecode.decode(generator.nextScanLine());
+            String expected = generator.expectedResult();
+            assertFalse(digits.contains("?"));
+            assertFalse(OcrDecode.isAccountNumberValid(digits));
+            assertFalse(expected.endsWith(" ERR"), expected);
+            if (expected.endsWith(" AMB")) {
+                ambiguous += 1;
+            } else {
+                assertEquals(1, differences(digits, expected));
+            }
+        }
+        assertTrue(ambiguous > 0 && ambiguous < 2000);
+    }
+
+    /**
+     * Half of the ILL entries have garbage in several cells, so some of them can not be recovered at all.
+     */
+    @Test
+    void illEntriesHaveGarbageInSeveralCells() {
+        ScanFileGenerator generator = new ScanFileGenerator(6L, 0, 0);
+        int garbage = 0;
+        for (int n = 0; n < 2000; n += 1) {
+            String digits = OcrDecode.decode(generator.nextScanLine());
+            if (digits.indexOf('?') != digits.lastIndexOf('?')) {
+                assertEquals(digits + " ILL", generator.expectedResult());
+                garbage += 1;
+            }
+        }
+        assertTrue(garbage > 500);
+    }
+
+    private static int differences(String a, String b) {
+        int count = 0;
+        for (int n = 0; n < a.length(); n += 1) {
+            if (a.charAt(n) != b.charAt(n)) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    void sameSeedGivesSameFiles(@TempDir Path tmp) throws IOException {
+        new ScanFileGenerator(7L, 85, 5).generate(tmp.resolve("a_in.txt"), 1000);
+        new ScanFileGenerator(7L, 85, 5).generate(tmp.resolve("b_in.txt"), 1000);
+        assertArrayEquals(Files.readAllBytes(tmp.resolve("a_in.txt")), Files.readAllBytes(tmp.resolve("b_in.txt")));
+        assertArrayEquals(Files.readAllBytes(tmp.resolve("a_out.txt")), Files.readAllBytes(tmp.resolve("b_out.txt")));
+    }
+
+    @Test
+    void undamagedEntriesAreValid() {
+        ScanFileGenerator generator = new ScanFileGenerator(1L, 100, 0);
+        for (int n = 0; n < 1000; n += 1) {
+            assertTrue(OcrDecode.isAccountNumberValid(OcrDecode.decode(generator.nextScanLine())));
+        }
+    }
+}
@@ -0,0 +1,205 @@
+import de.pruefbit.kata.DecodeResult;
+import de.pruefbit.kata.OcrBatchDecoder;
+import de.pruefbit.kata.OcrResultCache;
+import de.pruefbit.kata.OcrScanReader;
+import de.pruefbit.kata.ScannerFont;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ScannerFontTest {
+
+    private static final List<String> STANDARD_DEFINITION = Arrays.asList(
+            " _     _  _     _  _  _  _  _ ",
+            "| |  | _| _||_||_ |_   ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_| _|",
+            "0123456789");
+
+    /**
+     * The font of a scanner that prints the 7 with a hook.
+     */
+    private static final List<String> HOOK_DEFINITION = Arrays.asList(
+            "# the 7 with a hook",
+            " _     _  _     _  _  _  _  _",
+            "| |  | _| _||_||_ |_ | ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_| _|",
+            "",
+            "0123456789");
+
+    /**
+     * The font of a scanner that prints the 9 without a tail.
+     */
+    private static final List<String> TAILLESS_NINE_DEFINITION = Arrays.asList(
+            " _     _  _     _  _  _  _  _ ",
+            "| |  | _| _||_||_ |_   ||_||_|",
+            "|_|  ||_  _|  | _||_|  ||_|  |",
+            "0123456789");
+
+    private static final String[] HOOK_ENTRY = {
+            " _  _  _  _  _  _     _  _ ",
+            "| || || || || || |  || || |",
+            "  |  |  |  |  |  |  |  |  |"
+    };
+
+    private static final String HOOK_SCAN = HOOK_ENTRY[0] + "\n" + HOOK_ENTRY[1] + "\n" + HOOK_ENTRY[2] + "\n"
+            + "                           \n";
+
+    private static final String STANDARD_SCAN = "    _  _     _  _  _  _  _ \n"
+            + "  | _| _||_||_ |_   ||_||_|\n"
+            + "  ||_  _|  | _||_|  ||_| _|\n"
+            + "                           \n";
+
+    /**
+     * The alternatives are derived from the glyphs, so 9 also has 3 as an alternative, as in the User Story 4
+     * example of the kata: 999999999 is AMB, with 899999999, 993999999 and 999959999.
+     */
+    @Test
+    void derivesAlternativesFromGlyphs() {
+        DecodeResult result = DecodeResult.evaluate(new String[] {
+                " _  _  _  _  _  _  _  _  _ ",
+                "|_||_||_||_||_||_||_||_||_|",
+                " _| _| _| _| _| _| _| _| _|"
+        });
+        assertEquals(DecodeResult.Status.AMB, result.status());
+        List<String> candidates = new ArrayList<>();
+        for (int n = 0; n < result.candidateCount(); n += 1) {
+            candidates.add(result.candidate(n));
+        }
+        candidates.sort(null);
+        assertEquals(Arrays.asList("899999999", "993999999", "999959999"), candidates);
+    }
+
+    /**
+     * A parsed definition of the standard font decodes the same as the precomputed standard font.
+     */
+    @Test
+    void parsedStandardFontIsStandardFont() throws Exception {
+        ScannerFont parsed = ScannerFont.parse(STANDARD_DEFINITION);
+        assertEquals(10, parsed.glyphCount());
+        Path input = OcrScanReaderTest.resource("use_case_4_in.txt");
+        List<String> expected = Files.readAllLines(OcrScanReaderTest.resource("use_case_4_out.txt"));
+        try (OcrScanReader reader = OcrScanReader.open(input)) {
+            reader.setFont(parsed);
+            List<String> results = new ArrayList<>();
+            reader.forEachRemaining(results::add);
+            assertEquals(expected, results);
+        }
+    }
+
+    @Test
+    void decodesOtherFont() {
+        ScannerFont hook = ScannerFont.parse(HOOK_DEFINITION);
+        assertEquals("777777177", hook.decode(HOOK_ENTRY));
+        assertEquals("??????1??", ScannerFont.STANDARD.decode(HOOK_ENTRY));
+        assertEquals("777777177", DecodeResult.evaluate(HOOK_ENTRY, hook).toString());
+        assertEquals("??????1?? ILL", DecodeResult.evaluate(HOOK_ENTRY).toString());
+    }
+
+    /**
+     * Entries of both scanner models are decoded in one pass, with a font that combines both.
+     */
+    @Test
+    void decodesSeveralFontsInOneBatch(@TempDir Path tmp) throws IOException {
+        ScannerFont fonts = ScannerFont.combine(ScannerFont.STANDARD, ScannerFont.parse(HOOK_DEFINITION));
+        assertEquals(20, fonts.glyphCount());
+        String scan = STANDARD_SCAN + HOOK_SCAN + STANDARD_SCAN;
+        List<String> expected = Arrays.asList("123456789", "777777177", "123456789");
+
+        OcrScanReader reader = new OcrScanReader(new ByteArrayInputStream(scan.getBytes(StandardCharsets.US_ASCII)));
+        reader.setFont(fonts);
+        List<String> results = new ArrayList<>();
+        reader.forEachRemaining(results::add);
+        assertEquals(expected, results);
+
+        Path file = tmp.resolve("mixed_in.txt");
+        Files.write(file, scan.getBytes(StandardCharsets.US_ASCII));
+        assertEquals(expected, OcrBatchDecoder.decode(file, ForkJoinPool.commonPool(), null, false, fonts));
+    }
+
+    /**
+     * A cache keeps the results of its own font, so it must not be used to decode with another one.
+     */
+    @Test
+    void rejectsCacheOfAnotherFont(@TempDir Path tmp) throws IOException {
+        ScannerFont hook = ScannerFont.parse(HOOK_DEFINITION);
+        OcrResultCache cache = new OcrResultCache(OcrResultCache.MINIMUM_SIZE);
+        OcrScanReader reader = new OcrScanReader(new ByteArrayInputStream(new byte[0]));
+        reader.setFont(hook);
+        assertThrows(IllegalArgumentException.class, () -> reader.setCache(cache));
+        reader.setFont(ScannerFont.STANDARD);
+        reader.setCache(cache);
+        assertThrows(IllegalArgumentException.class, () -> reader.setFont(hook));
+
+        Path file = tmp.resolve("hook_in.txt");
+        Files.write(file, HOOK_SCAN.getBytes(StandardCharsets.US_ASCII));
+        assertThrows(IllegalArgumentException.class,
+                () -> OcrBatchDecoder.decode(file, ForkJoinPool.commonPool(), cache, false, hook));
+        assertEquals(List.of("777777177"), OcrBatchDecoder.decode(file, ForkJoinPool.commonPool(),
+                new OcrResultCache(OcrResultCache.MINIMUM_SIZE, hook), false, hook));
+    }
+
+    /**
+     * A 9 without a tail is one stroke away from a 4, but the 9 of the standard font is two strokes away. So in a
+     * font with both 9s, the standard 9 must not be repaired to a 4, although 902595637 would be good as 402595637.
+     */
+    @Test
+    void repairsOnlyWithAlternativesOfTheGlyphRead() {
+        ScannerFont fonts = ScannerFont.combine(ScannerFont.STANDARD, ScannerFont.parse(TAILLESS_NINE_DEFINITION));
+        String[] entry = {
+                " _  _  _  _  _  _  _  _  _ ",
+                "|_|| | _||_ |_||_ |_  _|  |",
+                " _||_||_  _| _| _||_| _|  |"
+        };
+        assertEquals("902595637 ERR", DecodeResult.evaluate(entry).toString());
+        assertEquals("902595637 ERR", DecodeResult.evaluate(entry, fonts).toString());
+        entry[2] = "  ||_||_  _| _| _||_| _|  |";
+        assertEquals("402595637", DecodeResult.evaluate(entry, fonts).toString());
+    }
+
+    @Test
+    void loadsFontFile(@TempDir Path tmp) throws IOException {
+        Path file = tmp.resolve("hook.font");
+        Files.write(file, HOOK_DEFINITION, StandardCharsets.US_ASCII);
+        assertEquals("777777177", ScannerFont.load(file).decode(HOOK_ENTRY));
+    }
+
+    @Test
+    void rejectsBadDefinitions() {
+        assertThrows(IllegalArgumentException.class,
+                () -> ScannerFont.parse(STANDARD_DEFINITION.subList(0, 3)));
+        assertThrows(IllegalArgumentException.class, () -> ScannerFont.parse(Arrays.asList(
+                " _     _  _     _  _  _  _  _ ",
+                "| |  | _| _||_||_ |_   ||_||_|",
+                "|_|  ||_  _|  | _||_|  ||_| _|",
+                "012345678x")));
+        assertThrows(IllegalArgumentException.class, () -> ScannerFont.parse(Arrays.asList(
+                " _     _  _     _  _  _  _  _ ",
+                "| |  | _| _||_||_ |_   ||_||_|",
+                "|_|  ||_  _|  | _||_|  ||_| _|",
+                "0123456788")));
+        assertThrows(IllegalArgumentException.class, () -> ScannerFont.parse(Arrays.asList(
+                "|_     _  _     _  _  _  _  _ ",
+                "| |  | _| _||_||_ |_   ||_||_|",
+                "|_|  ||_  _|  | _||_|  ||_| _|",
+                "0123456789")));
+        ScannerFont conflicting = ScannerFont.parse(Arrays.asList(
+                " _     _  _     _  _  _  _  _ ",
+                "| |  | _| _||_||_ |_   ||_||_|",
+                "|_|  ||_  _|  | _||_|  ||_| _|",
+                "0123456798"));
+        assertThrows(IllegalArgumentException.class, () -> ScannerFont.combine(ScannerFont.STANDARD, conflicting));
+        assertEquals("9", conflicting.decode(new String[] {" _ ", "|_|", "|_|"}));
+    }
+}
@@ -0,0 +1,56 @@
+import de.pruefbit.kata.TableGenerator;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class TableGeneratorTest {
+
+    private static final String GENERATED_SOURCE = "src/main/java/de/pruefbit/kata/GeneratedTables.java";
+
+    /**
+     * Loads the classes of the decoder anew, as if GeneratedTables were missing.
+     */
+    private static final class WithoutGeneratedTables extends URLClassLoader {
+
+        WithoutGeneratedTables(URL classes) {
+            super(new URL[]{classes}, ClassLoader.getPlatformClassLoader());
+        }
+
+        @Override
+        protected Class<?> loadClass(String name, boolean resolve) throws ClassNotFoundException {
+            if (name.endsWith(".GeneratedTables")) {
+                throw new ClassNotFoundException(name);
+            }
+            return super.loadClass(name, resolve);
+        }
+    }
+
+    /**
+     * The checked-in tables must be exactly what the generator makes of the string tables. If this fails, run
+     * the generator as described in TableGenerator.
+     */
+    @Test
+    void generatedTablesAreUpToDate() throws IOException {
+        String checkedIn = new String(Files.readAllBytes(Paths.get(GENERATED_SOURCE)), StandardCharsets.UTF_8);
+        assertEquals(TableGenerator.generate(), checkedIn);
+    }
+
+    /**
+     * The generator must not depend on its own output, or a broken GeneratedTables could not be generated anew.
+     */
+    @Test
+    void generatesWithoutGeneratedTables() throws Exception {
+        URL classes = TableGenerator.class.getProtectionDomain().getCodeSource().getLocation();
+        try (URLClassLoader loader = new WithoutGeneratedTables(classes)) {
+            Class<?> generator = loader.loadClass(TableGenerator.class.getName());
+            assertEquals(TableGenerator.generate(), generator.getMethod("generate").invoke(null));
+        }
+    }
+}